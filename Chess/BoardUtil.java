@@ -2,6 +2,7 @@ package Chess;
 
 import static Chess.Constants.PieceConstants.*;
 import static Chess.Constants.PositionConstants.*;
+import static Chess.Constants.MoveConstants.*;
 
 import Chess.Constants.DirectionConstants.Direction;
 import Chess.Constants.PieceConstants.PieceColor;
@@ -33,6 +34,38 @@ public class BoardUtil {
 		return Character.toString(COLUMNS[column]) + row;
 	}
 	
+	/**
+	 * Packs a move and its promotion into a single integer used by the search.
+	 * @param move The move being made.
+	 * @param promotion The type the pawn promotes to, null if the move isn't a promotion.
+	 * @return The move ID with the promotion type stored in the upper bits.
+	 */
+	public static int toSearchMove(Move move, PieceType promotion) {
+		return move.getID() | ((promotion == null ? 0 : promotion.arrayIndex) << PROMOTION_SHIFT);
+	}
+
+	/**
+	 * Returns the type a search move promotes to.
+	 * @param searchMove The packed search move.
+	 * @return The promotion type, null if the move isn't a promotion.
+	 */
+	public static PieceType getPromotion(int searchMove) {
+		final int index = searchMove >>> PROMOTION_SHIFT;
+		return index == 0 ? null : PIECE_TYPES[index];
+	}
+
+	/**
+	 * Converts a search move to coordinate notation, e.g. e7e8q.
+	 * @param searchMove The packed search move.
+	 * @return The move represented as a string.
+	 */
+	public static String searchMoveToString(int searchMove) {
+		final Move move = new Move(searchMove & MOVE_MASK);
+		final PieceType promotion = getPromotion(searchMove);
+		return indexToSquare(getColumn(move.getStart()), 8 - getRow(move.getStart())) + indexToSquare(getColumn(move.getFinish()), 8 - getRow(move.getFinish()))
+			+ (promotion == null ? "" : Character.toString(promotion.characterRepresentation));
+	}
+
 	/**
 	 * Converts a letter to a ChessPiece.
 	 * @param letter The letter being converted.
@@ -55,10 +88,21 @@ public class BoardUtil {
 	/**
 	 * Converts a ChessPiece to a character.
 	 * @param piece The piece being converted.
-	 * @return A character representing the chess piece.
+	 * @return A character representing the chess piece, uppercase for white pieces.
 	 */
 	public static char pieceToChar(ChessPiece piece) {
-		return piece.getType().characterRepresentation;
+		final char letter = piece.getType().characterRepresentation;
+		return piece.color == PieceColor.WHITE ? Character.toUpperCase(letter) : letter;
+	}
+
+	/**
+	 * Returns the amount one piece adds to a material key, each color and type has its own 4 bits.
+	 * @param color The index of the color of the piece.
+	 * @param type The index of the type of the piece, kings are not counted.
+	 * @return The material key of a lone piece.
+	 */
+	public static long materialKeyUnit(int color, int type) {
+		return 1L << (4 * (color * 5 + type));
 	}
 
 	/**
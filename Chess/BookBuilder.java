@@ -0,0 +1,574 @@
+package Chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import Chess.Constants.PieceConstants.PieceColor;
+import Chess.Constants.PieceConstants.PieceType;
+
+import static Chess.Constants.BookConstants.*;
+import static Chess.Constants.MoveConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.PositionConstants.*;
+import static Chess.BoardUtil.*;
+
+/**
+ * Class that builds an opening book in the Polyglot format read by {@link OpeningBook} from PGN files.
+ * <p>
+ * Every game is replayed on a ChessBoard up to a maximum ply, each position and the move played from it is recorded with the game's result
+ * from the mover's perspective. Records are collected in a fixed size buffer, when it fills up it's sorted, equal records are merged and it's
+ * written to a temporary run file. The runs are then merged with a priority queue, reading one record of each at a time. At most
+ * {@link Chess.Constants.BookConstants#MAX_MERGE_FAN_IN} runs are open at once, more runs are merged in several passes, so the heap holds one
+ * buffer and a read buffer per open run no matter how many games are read. The weight of each move is twice its wins plus its draws, scaled down per
+ * position to fit 16 bits, moves that only lost are left out.
+ * <p>
+ * The weight alone loses the counts, so the wins, draws and losses of each entry are also written to a result file next to the book, named
+ * by {@link OpeningBook#resultsPath(Path)}. Its entries line up one to one with the book's, so it's sorted the same way and read with
+ * {@link OpeningBook#getResults(ChessBoard, int)}. Polyglot readers only see the book and ignore it.
+ * <p>
+ * Positions are keyed by their Polyglot hash, so the keys must be loaded with {@link ZobristHashing#loadPolyglotKeys(Path)}.
+ */
+public class BookBuilder {
+
+	/** A position, the move played from it and how the games continuing with it ended for the mover. */
+	private static class Record {
+		long key;
+		int move;
+		int wins;
+		int draws;
+		int losses;
+
+		Record(long key, int move, int wins, int draws, int losses) {
+			this.key = key;
+			this.move = move;
+			this.wins = wins;
+			this.draws = draws;
+			this.losses = losses;
+		}
+
+		boolean sameEntry(Record record) {
+			return key == record.key && move == record.move;
+		}
+	}
+
+	/** Polyglot books are sorted by unsigned key, moves of a position are kept in a fixed order. */
+	private static final Comparator<Record> RECORD_ORDER = (a, b) -> {
+		final int byKey = Long.compareUnsigned(a.key, b.key);
+		return byKey != 0 ? byKey : Integer.compare(a.move, b.move);
+	};
+
+	private final int maxPly;
+	private final Record[] buffer;
+	private int buffered;
+	private final ArrayList<Path> runs;
+	private Path runDirectory;
+
+	private long games;
+	private long skippedGames;
+
+	/**
+	 * Creates a builder.
+	 * @param maxPly The number of plies of each game added to the book.
+	 * @param bufferSize The number of records held in memory before they're written to a run file.
+	 */
+	public BookBuilder(int maxPly, int bufferSize) {
+		if (maxPly < 1 || bufferSize < 1) throw new IllegalArgumentException("Invalid book parameters");
+		this.maxPly = maxPly;
+		this.buffer = new Record[bufferSize];
+		this.buffered = 0;
+		this.runs = new ArrayList<Path>();
+	}
+
+	/**
+	 * Reads the games of the PGN files and writes the book.
+	 * @param pgnFiles The PGN files, read one game at a time.
+	 * @param book The path of the book, replaced if it exists, the result file is written next to it.
+	 * @return The number of entries written.
+	 * @throws IOException If a file can't be read or written.
+	 */
+	public long build(Iterable<Path> pgnFiles, Path book) throws IOException {
+		if (!ZobristHashing.hasPolyglotKeys()) throw new IllegalStateException("Polyglot keys not loaded");
+		games = 0;
+		skippedGames = 0;
+		runDirectory = Files.createTempDirectory("book");
+		try {
+			for (final Path pgn : pgnFiles) {
+				readGames(pgn);
+			}
+			flushBuffer();
+			return mergeRuns(book);
+		} finally {
+			for (final Path run : runs) Files.deleteIfExists(run);
+			runs.clear();
+			Files.deleteIfExists(runDirectory);
+		}
+	}
+
+	/**
+	 * Returns the number of games read by the last build.
+	 * @return The number of games.
+	 */
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * Returns the number of games of the last build that were left out entirely, because of an unknown result, a comment or variation left open or a move that couldn't be read.
+	 * @return The number of games.
+	 */
+	public long getSkippedGames() {
+		return skippedGames;
+	}
+
+	/** The tags and moves of the game being read, with the comment and variation state of its move text carried from line to line. */
+	private static class PgnGame {
+		String result;
+		String fen;
+		final ArrayList<String> moves = new ArrayList<String>();
+		final StringBuilder token = new StringBuilder();
+		boolean hasMoveText;
+		boolean inComment;
+		int variationDepth;
+
+		/**
+		 * Splits a line of move text into its moves, leaving out comments, variations, numeric annotations, move numbers and the result.
+		 * Brace comments and variations may span lines, a semicolon comments out the rest of the line unless it's inside a brace comment.
+		 */
+		void scan(String line) {
+			for (int i = 0; i < line.length(); i++) {
+				final char letter = line.charAt(i);
+				if (!Character.isWhitespace(letter)) hasMoveText = true;
+				if (inComment) {
+					if (letter == '}') inComment = false;
+					continue;
+				}
+				if (letter == ';') break;
+				if (letter == '{') inComment = true;
+				else if (letter == '(') variationDepth ++;
+				else if (letter == ')' && variationDepth > 0) variationDepth --;
+				if (variationDepth > 0 || letter == '{' || letter == ')' || Character.isWhitespace(letter)) {
+					addToken(moves, token);
+					continue;
+				}
+				token.append(letter);
+			}
+			addToken(moves, token);
+		}
+
+		/**
+		 * Returns whether the move text ends inside a comment or a variation, the moves after it can't be told apart from the comment.
+		 * @return Whether a comment or variation was left open.
+		 */
+		boolean isUnterminated() {
+			return inComment || variationDepth > 0;
+		}
+
+		void clear() {
+			result = null;
+			fen = null;
+			moves.clear();
+			token.setLength(0);
+			hasMoveText = false;
+			inComment = false;
+			variationDepth = 0;
+		}
+	}
+
+	/**
+	 * Reads a PGN file one game at a time, tag pairs start a game and the move text follows them.
+	 */
+	private void readGames(Path pgn) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(pgn, StandardCharsets.ISO_8859_1)) {
+			final PgnGame game = new PgnGame();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				//Inside a brace comment every line is comment text, tags and escapes included.
+				if (!game.inComment) {
+					line = line.trim();
+					//Escaped lines are comments.
+					if (line.startsWith("%")) continue;
+					if (line.startsWith("[")) {
+						//A tag after move text starts the next game.
+						if (game.hasMoveText) {
+							addGame(game);
+							game.clear();
+						}
+						if (line.startsWith("[Result ")) game.result = tagValue(line);
+						else if (line.startsWith("[FEN ")) game.fen = tagValue(line);
+						continue;
+					}
+				}
+				game.scan(line);
+			}
+			if (game.hasMoveText) addGame(game);
+		}
+	}
+
+	private static String tagValue(String line) {
+		final int start = line.indexOf('"');
+		final int end = line.lastIndexOf('"');
+		return start >= 0 && end > start ? line.substring(start + 1, end) : null;
+	}
+
+	/**
+	 * Replays a game and records its positions up to the maximum ply.
+	 * @param game The tags and moves of the game.
+	 */
+	private void addGame(PgnGame game) throws IOException {
+		games ++;
+		final int whiteResult;
+		if ("1-0".equals(game.result)) whiteResult = 1;
+		else if ("0-1".equals(game.result)) whiteResult = -1;
+		else if ("1/2-1/2".equals(game.result)) whiteResult = 0;
+		else {
+			skippedGames ++;
+			return;
+		}
+		if (game.isUnterminated()) {
+			skippedGames ++;
+			return;
+		}
+
+		final ChessBoard board;
+		try {
+			board = game.fen == null ? new ChessBoard() : new ChessBoard(game.fen);
+		} catch (RuntimeException e) {
+			skippedGames ++;
+			return;
+		}
+
+		//Records are held until every move read parses, a game with a bad move adds nothing to the book.
+		final ArrayList<Record> records = new ArrayList<Record>(Math.min(maxPly, game.moves.size()));
+		for (final String san : game.moves) {
+			if (records.size() >= maxPly) break;
+			final int move = parseSan(board, san);
+			if (move == 0) {
+				skippedGames ++;
+				return;
+			}
+
+			final int moverResult = board.getTurn() == PieceColor.WHITE ? whiteResult : -whiteResult;
+			records.add(new Record(board.hashing.getPolyglotHash(), toPolyglotMove(board, move),
+				moverResult > 0 ? 1 : 0, moverResult == 0 ? 1 : 0, moverResult < 0 ? 1 : 0));
+
+			board.makeMove(new Move(move & MOVE_MASK));
+			if (board.is_promote()) board.promote(getPromotion(move));
+		}
+		for (final Record record : records) addRecord(record);
+	}
+
+	private static void addToken(ArrayList<String> moves, StringBuilder token) {
+		if (token.length() == 0) return;
+		String move = token.toString();
+		token.setLength(0);
+
+		//Move numbers may be attached to the move, e.g. 12.e4 or 12...e5.
+		final int dot = move.lastIndexOf('.');
+		if (dot >= 0) move = move.substring(dot + 1);
+		if (move.isEmpty() || move.startsWith("$") || move.equals("*") || move.equals("1-0") || move.equals("0-1") || move.equals("1/2-1/2")) return;
+		moves.add(move);
+	}
+
+	/**
+	 * Finds the legal move a move in standard algebraic notation describes.
+	 * @param board The position the move is played in.
+	 * @param san The move, check and annotation symbols are ignored.
+	 * @return The move as a search move, 0 if no legal move or more than one matches.
+	 */
+	static int parseSan(ChessBoard board, String san) {
+		san = san.replaceAll("[+#!?]", "");
+		final PieceColor turn = board.getTurn();
+
+		//Castling, some files write zeros.
+		if (san.equals("O-O") || san.equals("0-0") || san.equals("O-O-O") || san.equals("0-0-0")) {
+			final int king = board.getKingPos(turn);
+			return findMove(board, PieceType.KING, king + (san.length() == 3 ? 2 : -2), getColumn(king), getRow(king), null);
+		}
+
+		PieceType promotion = null;
+		final int equals = san.indexOf('=');
+		if (equals >= 0 && equals + 1 < san.length()) {
+			promotion = typeOf(san.charAt(equals + 1));
+			san = san.substring(0, equals);
+		}
+		else if (san.length() > 2 && Character.isUpperCase(san.charAt(san.length() - 1))) {
+			promotion = typeOf(san.charAt(san.length() - 1));
+			san = san.substring(0, san.length() - 1);
+		}
+		if (san.length() < 2) return 0;
+
+		final PieceType type = Character.isUpperCase(san.charAt(0)) ? typeOf(san.charAt(0)) : PieceType.PAWN;
+		if (type == null) return 0;
+		final String square = san.substring(san.length() - 2);
+		final int finish = squareIndex(square);
+		if (finish < 0) return 0;
+
+		//What's left between the piece and the destination disambiguates the origin, captures are marked with x.
+		final String origin = san.substring(type == PieceType.PAWN ? 0 : 1, san.length() - 2).replace("x", "");
+		int column = -1;
+		int row = -1;
+		for (final char letter : origin.toCharArray()) {
+			if (letter >= 'a' && letter <= 'h') column = letter - 'a';
+			else if (letter >= '1' && letter <= '8') row = 8 - (letter - '0');
+			else return 0;
+		}
+		return findMove(board, type, finish, column, row, promotion);
+	}
+
+	private static int findMove(ChessBoard board, PieceType type, int finish, int column, int row, PieceType promotion) {
+		int found = 0;
+		for (final ChessPiece piece : board.getPieces(board.getTurn())) {
+			if (piece.getType() != type) continue;
+			if (column >= 0 && getColumn(piece.getPos()) != column) continue;
+			if (row >= 0 && getRow(piece.getPos()) != row) continue;
+
+			final ArrayList<Move> moves = new ArrayList<Move>(MAX_MOVES[type.arrayIndex]);
+			piece.pieceMoves(moves);
+			for (final Move move : moves) {
+				if (move.getFinish() != finish) continue;
+				final boolean promotes = piece.isPawn() && getRow(finish) == PROMOTION_ROW[board.getTurn().arrayIndex];
+				if (promotes != (promotion != null)) continue;
+				if (found != 0) return 0;
+				found = BoardUtil.toSearchMove(move, promotes ? promotion : null);
+			}
+		}
+		return found;
+	}
+
+	private static PieceType typeOf(char letter) {
+		for (final PieceType type : PIECE_TYPES) {
+			if (Character.toLowerCase(letter) == type.characterRepresentation) return type;
+		}
+		return null;
+	}
+
+	private static int squareIndex(String square) {
+		final char file = square.charAt(0);
+		final char rank = square.charAt(1);
+		if (file < 'a' || file > 'h' || rank < '1' || rank > '8') return -1;
+		return (8 - (rank - '0')) * 8 + (file - 'a');
+	}
+
+	/**
+	 * Encodes a move the way Polyglot books store it, castling is stored as the king capturing its own rook.
+	 * @param board The position the move is played in.
+	 * @param move The move as a search move.
+	 * @return The Polyglot move.
+	 */
+	static int toPolyglotMove(ChessBoard board, int move) {
+		final Move boardMove = new Move(move & MOVE_MASK);
+		final int start = boardMove.getStart();
+		int finish = boardMove.getFinish();
+		if (board.getPiece(start).isKing() && Math.abs(finish - start) == 2) {
+			finish = finish > start ? start + 3 : start - 4;
+		}
+		final PieceType promotion = getPromotion(move);
+		//Polyglot ranks count from white's side, squares here start at a8.
+		return (promotion == null ? 0 : promotion.arrayIndex) << 12 | (7 - getRow(start)) << 9 | getColumn(start) << 6
+			| (7 - getRow(finish)) << 3 | getColumn(finish);
+	}
+
+	private void addRecord(Record record) throws IOException {
+		if (buffered == buffer.length) flushBuffer();
+		buffer[buffered++] = record;
+	}
+
+	/**
+	 * Sorts the buffered records, merges equal ones and writes them to a new run file.
+	 */
+	private void flushBuffer() throws IOException {
+		if (buffered == 0) return;
+		Arrays.sort(buffer, 0, buffered, RECORD_ORDER);
+		final Path run = newRun();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+			Record merged = buffer[0];
+			for (int i = 1; i < buffered; i++) {
+				if (buffer[i].sameEntry(merged)) {
+					merged.wins += buffer[i].wins;
+					merged.draws += buffer[i].draws;
+					merged.losses += buffer[i].losses;
+					continue;
+				}
+				writeRecord(out, merged);
+				merged = buffer[i];
+			}
+			writeRecord(out, merged);
+		}
+		Arrays.fill(buffer, 0, buffered, null);
+		buffered = 0;
+	}
+
+	/**
+	 * Creates an empty run file, it's deleted at the end of the build.
+	 * @return The path of the run.
+	 */
+	private Path newRun() throws IOException {
+		final Path run = Files.createTempFile(runDirectory, "run", null);
+		runs.add(run);
+		return run;
+	}
+
+	private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+		out.writeLong(record.key);
+		out.writeShort(record.move);
+		out.writeInt(record.wins);
+		out.writeInt(record.draws);
+		out.writeInt(record.losses);
+	}
+
+	/** Reads the records of a run file one at a time. */
+	private static class RunReader {
+		final DataInputStream in;
+		Record current;
+
+		RunReader(Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+			advance();
+		}
+
+		void advance() throws IOException {
+			try {
+				current = new Record(in.readLong(), in.readUnsignedShort(), in.readInt(), in.readInt(), in.readInt());
+			} catch (EOFException e) {
+				current = null;
+				in.close();
+			}
+		}
+	}
+
+	/** Merges sorted runs with a priority queue, equal records of different runs are added together. */
+	private static class RunMerger implements Closeable {
+		final PriorityQueue<RunReader> queue;
+		Record pending;
+
+		RunMerger(List<Path> runs) throws IOException {
+			queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()), (a, b) -> RECORD_ORDER.compare(a.current, b.current));
+			try {
+				for (final Path run : runs) {
+					final RunReader reader = new RunReader(run);
+					if (reader.current != null) queue.add(reader);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			pending = poll();
+		}
+
+		private Record poll() throws IOException {
+			final RunReader reader = queue.poll();
+			if (reader == null) return null;
+			final Record record = reader.current;
+			reader.advance();
+			if (reader.current != null) queue.add(reader);
+			return record;
+		}
+
+		/**
+		 * Returns the next record in sorted order, with the equal records of all runs added into it.
+		 * @return The record, null once every run is read.
+		 */
+		Record next() throws IOException {
+			final Record record = pending;
+			if (record == null) return null;
+			pending = poll();
+			while (pending != null && pending.sameEntry(record)) {
+				record.wins += pending.wins;
+				record.draws += pending.draws;
+				record.losses += pending.losses;
+				pending = poll();
+			}
+			return record;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (final RunReader reader : queue) reader.in.close();
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Merges the sorted runs into the book. Only {@link Chess.Constants.BookConstants#MAX_MERGE_FAN_IN} runs are opened at a time, when there
+	 * are more the oldest ones are first merged into longer runs until the rest fit in one pass.
+	 * @param book The path of the book, the result file is written next to it.
+	 * @return The number of entries written.
+	 */
+	private long mergeRuns(Path book) throws IOException {
+		while (runs.size() > MAX_MERGE_FAN_IN) {
+			final Path run = newRun();
+			final List<Path> group = runs.subList(0, MAX_MERGE_FAN_IN);
+			try (RunMerger merger = new RunMerger(group);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+				for (Record record = merger.next(); record != null; record = merger.next()) {
+					writeRecord(out, record);
+				}
+			}
+			for (final Path merged : group) Files.delete(merged);
+			group.clear();
+		}
+
+		long entries = 0;
+		try (RunMerger merger = new RunMerger(runs);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(book)));
+			DataOutputStream results = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(OpeningBook.resultsPath(book))))) {
+			//Moves of one position are gathered so their weights can be scaled together.
+			final ArrayList<Record> position = new ArrayList<Record>();
+			for (Record record = merger.next(); record != null; record = merger.next()) {
+				if (!position.isEmpty() && position.get(0).key != record.key) {
+					entries += writePosition(out, results, position);
+					position.clear();
+				}
+				position.add(record);
+			}
+			entries += writePosition(out, results, position);
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes the moves of one position as Polyglot entries, and their results in the same order.
+	 * @return The number of entries written.
+	 */
+	private static int writePosition(DataOutputStream out, DataOutputStream results, ArrayList<Record> position) throws IOException {
+		long maxScore = 0;
+		for (final Record record : position) {
+			maxScore = Math.max(maxScore, score(record));
+		}
+		if (maxScore == 0) return 0;
+
+		int written = 0;
+		for (final Record record : position) {
+			long weight = score(record);
+			if (weight == 0) continue;
+			if (maxScore > POLYGLOT_MAX_WEIGHT) weight = Math.max(1, weight * POLYGLOT_MAX_WEIGHT / maxScore);
+			out.writeLong(record.key);
+			out.writeShort(record.move);
+			out.writeShort((int) weight);
+			out.writeInt(0);		//Learn data, unused.
+			results.writeInt(record.wins);
+			results.writeInt(record.draws);
+			results.writeInt(record.losses);
+			written ++;
+		}
+		return written;
+	}
+
+	private static long score(Record record) {
+		return 2L * record.wins + record.draws;
+	}
+}
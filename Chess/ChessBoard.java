@@ -61,6 +61,9 @@ public class ChessBoard {
 	/** 2d int array storing a count of all types pieces, 0 refers to BLACK, 1 for WHITE.*/
 	private final int[][] pieceCount;
 
+	/** Every piece count packed into 4 bits each, the signature the endgame evaluations are looked up by. */
+	private long materialKey;
+
 	/** PieceSet array storing all pieces, 0 refers to BLACK, 1 for WHITE.*/
 	private final PieceSet[] pieces;
 	
@@ -80,6 +83,16 @@ public class ChessBoard {
 	public int fullMove;
 
 	public final ZobristHashing hashing;
+	public final Evaluation evaluation;
+
+	/** Hashes of the positions before each move made, the last entry is the position before the last move. */
+	private long[] history;
+	private int historyLength;
+
+	/** Optional neural network evaluation, null unless a network is set. */
+	private NeuralEvaluation neuralEvaluation;
+	/** Whether or not a move is being undone, the neural accumulators are restored from their stack instead of updated. */
+	private boolean undoing;
 	
 	/**
 	 * Creates a new Chessboard object with the default starting position.
@@ -111,6 +124,7 @@ public class ChessBoard {
 		pieceCount[PieceColor.WHITE.arrayIndex] = new int[5];
 		Arrays.fill(pieceCount[0], 0);
 		Arrays.fill(pieceCount[1], 0);
+		materialKey = 0;
 		board = new ChessPiece[64];
 		castling = new boolean[2][2]; //Black: Queenside, Kingside, White: Queenside, Kingside
 		Arrays.fill(castling[PieceColor.BLACK.arrayIndex], false);
@@ -121,6 +135,11 @@ public class ChessBoard {
 		hardAttackUpdate();
 
 		hashing = new ZobristHashing(this);
+		evaluation = new Evaluation(this);
+		history = new long[HISTORY_CAPACITY];
+		historyLength = 0;
+		neuralEvaluation = null;
+		undoing = false;
 	}
 	
 	/**
@@ -269,7 +288,7 @@ public class ChessBoard {
 			
 			//Keep track of the piece.
 			if (piece.isKing()) kingPos[piece.color.arrayIndex] = pos;
-			else pieceCount[piece.color.arrayIndex][piece.getType().arrayIndex] ++;
+			else updatePieceCount(piece.color.arrayIndex, piece.getType().arrayIndex, 1);
 
 			pos++;
 		}
@@ -283,6 +302,8 @@ public class ChessBoard {
 		long prevTime = System.currentTimeMillis();
 
 		final ChessPiece movingPiece = board[move.getStart()];
+		if (neuralEvaluation != null) neuralEvaluation.push();
+		pushHistory();
 
 		final boolean isAttack = !board[move.getFinish()].isEmpty();
 		kingAttacker = ChessPiece.empty();
@@ -317,7 +338,7 @@ public class ChessBoard {
 			}
 		}
 
-		hashing.flipPiece(move.getStart(), movingPiece);
+		flipPiece(move.getStart(), movingPiece, true);
 		board[move.getStart()] = ChessPiece.empty();	//Empty the square the moving piece used to occupy.
 		
 		updatePosition(movingPiece, move.getFinish(), false);		//Move the moving piece to the new position.
@@ -395,7 +416,7 @@ public class ChessBoard {
 		updatePosition(board[currentRookPos], newRookPos, false);
 
 		board[currentRookPos] = ChessPiece.empty();
-		hashing.flipPiece(currentRookPos, board[newRookPos]);
+		flipPiece(currentRookPos, board[newRookPos], true);
 
 		return newRookPos;
 	}
@@ -408,6 +429,9 @@ public class ChessBoard {
 	 */
 	public void undoMove(Move move, ChessPiece capturedPiece, BoardStorage store) {
 		long prevTime = System.currentTimeMillis();
+		if (neuralEvaluation != null) neuralEvaluation.pop();
+		historyLength --;
+		undoing = true;
 
 		//Back up a turn if a promotion isn't happenning.
 		if (!is_promote()) {
@@ -437,7 +461,7 @@ public class ChessBoard {
 		}
 
 		board[invertedMove.getStart()] = ChessPiece.empty();		//Empty the square the piece used to occupy.
-		hashing.flipPiece(invertedMove.getStart(), movingPiece);
+		flipPiece(invertedMove.getStart(), movingPiece, true);
 		updatePosition(movingPiece, invertedMove.getFinish(), false);			//Move the moving piece to the new position.
 
 		//Add the captured piece back onto the board.
@@ -457,6 +481,7 @@ public class ChessBoard {
 		if (castledRookPos != EMPTY) board[castledRookPos].pieceAttacks(false);			//Update the squares the castled rook now attacks.
 		
 		promotingPawn = EMPTY;
+		undoing = false;
 
 		Tests.timeUndoMove += System.currentTimeMillis() - prevTime;
 	}
@@ -473,7 +498,7 @@ public class ChessBoard {
 		castledRook.pieceAttacks(true);		//Update the squares the rook currently attacks.
 		updatePosition(castledRook, ROOK_POSITIONS[turn.arrayIndex][side], false);		//Move the rook to the new position.
 		board[castledRookPos] = ChessPiece.empty();			//Empty the square the rook used to occupy.
-		hashing.flipPiece(castledRookPos, castledRook);
+		flipPiece(castledRookPos, castledRook, true);
 		return ROOK_POSITIONS[turn.arrayIndex][side];
 	}
 
@@ -484,12 +509,12 @@ public class ChessBoard {
 	 * @param remove Whether or not the piece is getting removed or added.
 	 */
 	private void updatePosition(ChessPiece piece, int pos, boolean remove) {
-		hashing.flipPiece(pos, piece);
+		flipPiece(pos, piece, remove);
 
 		//Remove the piece from the board and updates the tracking variables.
 		if (remove) {
 			pieces[piece.color.arrayIndex].remove(piece);
-			pieceCount[piece.color.arrayIndex][piece.getType().arrayIndex] -= 1;
+			updatePieceCount(piece.color.arrayIndex, piece.getType().arrayIndex, -1);
 			board[pos] = ChessPiece.empty();
 			return;
 		}
@@ -497,12 +522,42 @@ public class ChessBoard {
 		//Add the piece to the board and update the tracking variables.
 		board[pos] = piece;
 		piece.setPos(pos);
-		if (pieces[piece.color.arrayIndex].add(piece)) pieceCount[piece.color.arrayIndex][piece.getType().arrayIndex] += 1;
+		if (pieces[piece.color.arrayIndex].add(piece)) updatePieceCount(piece.color.arrayIndex, piece.getType().arrayIndex, 1);
 		
 		//Update the king position variable if the king moves.
 		if (piece.isKing()) kingPos[piece.color.arrayIndex] = pos;
 	}
 
+	/**
+	 * Changes the count of a type of piece along with the material key and hash.
+	 * @param color The index of the color of the pieces.
+	 * @param type The index of the type of the pieces, kings are not counted.
+	 * @param change The number of pieces added, negative if removed.
+	 */
+	private void updatePieceCount(int color, int type, int change) {
+		final int oldCount = pieceCount[color][type];
+		pieceCount[color][type] += change;
+		materialKey += change * materialKeyUnit(color, type);
+		//While the FEN is parsed there is no hashing yet, it hashes the finished position once created.
+		if (hashing != null) hashing.updateMaterial(color, type, oldCount, pieceCount[color][type]);
+	}
+
+	/**
+	 * Adds or removes a piece from the incrementally updated hash and evaluation, every piece entering or leaving a square passes through here.
+	 * @param pos The square the piece is entering or leaving.
+	 * @param piece The piece, its type must be the type entering or leaving the square.
+	 * @param remove Whether or not the piece is leaving the square.
+	 */
+	private void flipPiece(int pos, ChessPiece piece, boolean remove) {
+		hashing.flipPiece(pos, piece);
+		if (remove) evaluation.removePiece(pos, piece);
+		else evaluation.addPiece(pos, piece);
+
+		if (neuralEvaluation == null || undoing) return;
+		if (remove) neuralEvaluation.removePiece(pos, piece);
+		else neuralEvaluation.addPiece(pos, piece);
+	}
+
 	/**
 	 * Promotes the pawn.
 	 * @param type The new type of the promoted piece.
@@ -511,13 +566,13 @@ public class ChessBoard {
 		final ChessPiece promotingPiece = board[promotingPawn];
 		
 		//Add the promoted piece to the board.
-		hashing.flipPiece(promotingPawn, promotingPiece);
+		flipPiece(promotingPawn, promotingPiece, true);
 		promotingPiece.setType(type);
 		updatePosition(promotingPiece, promotingPawn, false);
 
 		//Update tracking variables.
-		pieceCount[turn.arrayIndex][type.arrayIndex] += 1;
-		pieceCount[turn.arrayIndex][PieceType.PAWN.arrayIndex] -= 1;
+		updatePieceCount(turn.arrayIndex, type.arrayIndex, 1);
+		updatePieceCount(turn.arrayIndex, PieceType.PAWN.arrayIndex, -1);
 
 		promotingPiece.pieceAttacks(false);	//Update the squares the promoted piece now attacks.
 
@@ -536,7 +591,7 @@ public class ChessBoard {
 	 */
 	public void unPromote(int pos) {
 		final ChessPiece unpromotingPiece = board[pos];
-		hashing.flipPiece(pos, unpromotingPiece);
+		flipPiece(pos, unpromotingPiece, true);
 
 		//Backup a turn.
 		halfMove --;
@@ -544,8 +599,8 @@ public class ChessBoard {
 		next_turn();
 
 		//Update tracking variables.
-		pieceCount[turn.arrayIndex][unpromotingPiece.getType().arrayIndex] --;
-		pieceCount[turn.arrayIndex][PieceType.PAWN.arrayIndex] ++;
+		updatePieceCount(turn.arrayIndex, unpromotingPiece.getType().arrayIndex, -1);
+		updatePieceCount(turn.arrayIndex, PieceType.PAWN.arrayIndex, 1);
 
 		//Update the squares the unpromoting piece used to attack.
 		unpromotingPiece.pieceAttacks(true);
@@ -684,6 +739,31 @@ public class ChessBoard {
 		}
 	}
 
+	/**
+	 * Records the current position before a move is made.
+	 */
+	private void pushHistory() {
+		if (historyLength == history.length) history = Arrays.copyOf(history, history.length * 2);
+		history[historyLength++] = hashing.getHash();
+	}
+
+	/**
+	 * Checks if the current position occurred before. Only positions since the last capture or pawn move can repeat,
+	 * and only every second one has the same side to move, so at most halfMove / 2 hashes are compared.
+	 * @param occurrences The number of earlier occurrences needed, 1 for the search, 2 for a threefold repetition.
+	 * @return Whether or not the position occurred at least that many times before.
+	 */
+	public boolean isRepetition(int occurrences) {
+		final long hash = hashing.getHash();
+		final int oldest = Math.max(0, historyLength - halfMove);
+		int found = 0;
+		//A position can't repeat after two plies, the side to move would have to move a piece and return it in one move.
+		for (int i = historyLength - 4; i >= oldest; i -= 2) {
+			if (history[i] == hash && ++found >= occurrences) return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Check if the game is over.
 	 * @return The current state of the game, CONTINUE: 2, WIN: 1, DRAW: 0.
@@ -692,6 +772,9 @@ public class ChessBoard {
 		//Half move timer, look it up.
 		if (halfMove >= HALF_MOVE_TIMER) return DRAW;
 
+		//Threefold repetition.
+		if (isRepetition(2)) return DRAW;
+
 		//If neither side has enough pieces to secure checkmate, game ends in a draw.
 		if (hasInsufficientMaterial()) return DRAW;
 
@@ -711,12 +794,14 @@ public class ChessBoard {
 	 * Check if the game is over by insufficient material resulting in a draw.
 	 * @return Whether or not the game is a draw.
 	 */
-	private boolean hasInsufficientMaterial() {
+	public boolean hasInsufficientMaterial() {
 		//Check each side to see if there's enough pieces.
 		for (int color = 0; color < 2; color++) {
 			if (pieceCount[color][PieceType.PAWN.arrayIndex] > 0 || pieceCount[color][PieceType.KNIGHT.arrayIndex] > 2 
 				|| pieceCount[color][PieceType.BISHOP.arrayIndex] > 1 || pieceCount[color][PieceType.ROOK.arrayIndex] > 0 
 				|| pieceCount[color][PieceType.QUEEN.arrayIndex] > 0) return false;
+			//A bishop and knight can force mate.
+			if (pieceCount[color][PieceType.KNIGHT.arrayIndex] > 0 && pieceCount[color][PieceType.BISHOP.arrayIndex] > 0) return false;
 		}
 		return true;
 	}
@@ -896,6 +981,24 @@ public class ChessBoard {
 		return board[pos];
 	}
 
+	/**
+	 * Returns the number of pieces of a specific type and color, kings are not counted.
+	 * @param color The color of the pieces.
+	 * @param type The type of the pieces.
+	 * @return The number of pieces on the board.
+	 */
+	public int getPieceCount(PieceColor color, PieceType type) {
+		return pieceCount[color.arrayIndex][type.arrayIndex];
+	}
+
+	/**
+	 * Returns the count of every type of piece packed into one number, equal for positions with the same material.
+	 * @return The material key.
+	 */
+	public long getMaterialKey() {
+		return materialKey;
+	}
+
 	/**
 	 * Returns all pieces of a specific color.
 	 * @param color The color of the pieces.
@@ -913,6 +1016,35 @@ public class ChessBoard {
 		return new BoardStorage(getEnPassant(), halfMove, getCastlingPotential(getTurn()));
 	}
 
+	/**
+	 * Returns an independent copy of the board, used to give each search thread its own position.
+	 * The position history is copied along so the copy still sees repetitions of earlier positions.
+	 * @return A new ChessBoard object with the same position.
+	 */
+	public ChessBoard copy() {
+		final ChessBoard copy = new ChessBoard(getFenString());
+		copy.history = Arrays.copyOf(history, history.length);
+		copy.historyLength = historyLength;
+		if (neuralEvaluation != null) copy.setNetwork(neuralEvaluation.getNetwork());
+		return copy;
+	}
+
+	/**
+	 * Sets the neural network used to evaluate the board, its accumulators are built from the current position and kept up to date as moves are made.
+	 * @param network The network, null to go back to the handcrafted evaluation.
+	 */
+	public void setNetwork(NeuralNetwork network) {
+		neuralEvaluation = network != null ? new NeuralEvaluation(this, network) : null;
+	}
+
+	/**
+	 * Returns the neural network evaluation of the board.
+	 * @return The NeuralEvaluation object, null if no network is set.
+	 */
+	public NeuralEvaluation getNeuralEvaluation() {
+		return neuralEvaluation;
+	}
+
 	/**
 	 * Returns a computer that can analyze the board.
 	 * @return A computer object that can evaluate the best move or find the max amount of possible moves.
@@ -963,7 +1095,7 @@ public class ChessBoard {
 		if (isChecked(color)) return false;
 
 		//If the king or associated rook have already moved, it can't castle.
-		if (!castling[turn.arrayIndex][side]) return false;
+		if (!castling[color.arrayIndex][side]) return false;
 
 		//If the piece on the side is not a rook, it can't castle.
 		final int rookPos = ROOK_POSITIONS[color.arrayIndex][side];
@@ -1015,4 +1147,12 @@ public class ChessBoard {
 	public long hash() {
 		return hashing.getHash();
 	}
+
+	/**
+	 * Returns the static evaluation of the position, kept up to date as moves are made and undone.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	public int evaluate() {
+		return evaluation.evaluate();
+	}
 }
\ No newline at end of file
@@ -12,6 +12,8 @@ import Chess.Constants.PieceConstants.PieceColor;
 import Chess.Constants.PieceConstants.PieceType;
 
 import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.MoveConstants.*;
+import static Chess.Constants.SearchConstants.*;
 
 public class ChessGame {
 	/*A Chess Game class*/
@@ -27,6 +29,7 @@ public class ChessGame {
 
 	private boolean winner;
 	private int click1;			//Stores the user first input
+	private int lastMove;		//The user's last move as a search move, used to check for a ponder hit
 
 	public ChessGame(PieceColor computerTurn, int difficulty) {
 		this(computerTurn, difficulty, PieceColor.WHITE);
@@ -40,6 +43,7 @@ public class ChessGame {
 		legal = new ArrayList<Move>();
 		winner = false;
 		click1 = -1;		//sets var as no clicks
+		lastMove = 0;
 		
 		board = new ChessBoard();	//Creates a new ChessBoard object
 		this.computer = board.getComputer();
@@ -138,13 +142,27 @@ public class ChessGame {
 	}
 	
 	private void computer_turn() {
-//		Move move = board.computer_move(difficulty);
-//		board.make_move(move,true);
-//		if(board.is_promote()) {
-//			move = board.computer_move(difficulty);
-//			board.promote(board.promotingPawn, move.getFinish());
-//		}
-//		next_turn();
+		/*ChessGame.computer_turn() -> None
+		 * function that finds and plays the computer's move,
+		 * then ponders on the user's expected reply*/
+		final SearchLimits limits = SearchLimits.moveTime((difficulty + 1) * MOVE_TIME_PER_DIFFICULTY);
+		Computer.SearchResult result = null;
+		//Ponder hit, the search already running becomes the real search
+		if (computer.isPondering() && computer.getPonderMove() == lastMove) {
+			result = computer.ponderHit();
+		}
+		//Ponder miss or no ponder, stops the ponder search but keeps what it learned
+		if (result == null || result.bestMove == 0) {
+			computer.stopPondering();
+			result = computer.search(limits);
+		}
+		if (result.bestMove == 0) return;	//No legal moves, the game is already over
+
+		board.makeMove(result.getMove());
+		if (result.getPromotion() != null) board.promote(result.getPromotion());
+		//Thinks about the expected reply while the user does
+		if (result.pv.length > 1) computer.startPondering(result.pv[1], limits);
+		next_turn();
 	}
 	
 	private void get_click(int pos) {
@@ -175,6 +193,7 @@ public class ChessGame {
 			//Checks if the click is a legal move
 			if(move.getFinish() == pos) {
 				//makes the move on the board
+				lastMove = move.getID();
 				board.makeMove(move);
 				legal.clear();
 				//Checks if there is a pawn promoting
@@ -195,6 +214,7 @@ public class ChessGame {
 		 * then takes the users input and promotes a pawn*/
 		//Checks if promotion is happening
 		if(board.is_promote()) {
+			lastMove |= type.arrayIndex << PROMOTION_SHIFT;	//Adds the promotion to the search move
 			board.promote(type);		//Promotes the pawn on the board
 			next_turn();					//NEXT
 		}
@@ -209,6 +229,7 @@ public class ChessGame {
 		if(win == CONTINUE) {
 			return;
 		}
+		computer.stopPondering();	//Nothing left to ponder
 		final JFrame w2 = new JFrame();	//Cool frame
 		final JPanel p2 = new JPanel();	//Cool panel
 		JLabel l2 = new JLabel();	//Cool label
@@ -200,22 +200,44 @@ public class ChessPiece {
 		final Direction enPassantDirection = board.isEnPassant(move) ? getDirection(pos, board.getEnPassant()) : null;
 
 		//Handles the case where a rook or queen is on the same column as the enPassant square.
-		if (enPassantDirection == Direction.DOWN || enPassantDirection == Direction.UP && isLineAttacker()) {
+		if ((enPassantDirection == Direction.DOWN || enPassantDirection == Direction.UP) && isLineAttacker()) {
 			final int enPassant = board.getEnPassant();
 			final boolean enPassantIsCloser = getNumSquaresFromEdge(enPassantDirection, enPassant) > getNumSquaresFromEdge(enPassantDirection, undoMove ? move.getStart() : move.getFinish());
 
+			//A queen next to the enPassant square also sees the capturing pawn's square diagonally.
+			final int pawnSquare = undoMove ? move.getFinish() : move.getStart();
+			if (isDiagonalAttacker() && board.getAttackers(pawnSquare, flipColor(color)).contains(this)) {
+				final Direction pawnDirection = getDirection(pos, pawnSquare);
+				if (undoMove) {
+					removeAttacks(pawnDirection, pawnSquare);
+					pieceReset(pawnSquare, END, isAttack, undoMove);
+				}
+				else {
+					addAttacks(pawnDirection, pawnSquare);
+					pieceReset(pawnSquare, START, isAttack, undoMove);
+				}
+			}
+
 			//The enPassant square is closer to the attacking piece than the end square of the move.
 			if (enPassantIsCloser) {
 				//The square goes from empty to filled meaning remove attacks.
 				if (undoMove) removeAttacks(enPassantDirection, enPassant, 1);
 				//The square goes from filled to empty meaning add attacks.
 				else addAttacks(enPassantDirection, enPassant, 1);
+				pieceReset(enPassant, EN_PASSANT, isAttack, undoMove);
 				return true;
 			}
 			//The square goes from empty to filled meaning add attacks.
-			if (undoMove) addAttacks(enPassantDirection, move.getStart(), 1);
+			if (undoMove) {
+				addAttacks(enPassantDirection, move.getStart(), 1);
+				pieceReset(move.getStart(), START, isAttack, undoMove);
+				pieceReset(enPassant, EN_PASSANT, isAttack, undoMove);
+			}
 			//The square goes from filled to empty meaning remove attacks.
-			else removeAttacks(enPassantDirection, move.getFinish(), 1);
+			else {
+				removeAttacks(enPassantDirection, move.getFinish(), 1);
+				pieceReset(move.getFinish(), END, isAttack, undoMove);
+			}
 			return true;
 		}
 
@@ -233,10 +255,6 @@ public class ChessPiece {
 					*/
 					if (!(isAttack && undoMove)) {
 						addAttacks(startDirection, square);
-						if (board.isEnPassant(move) && !undoMove) {
-							pieceReset(move.getStart(), START, isAttack, undoMove);
-							return true;
-						}
 					}
 					return false;
 				case END:
@@ -255,6 +273,10 @@ public class ChessPiece {
 					if (undoMove) {
 						removeAttacks(enPassantDirection, square);
 					}
+					//The captured pawn is behind the start square, the attacks added past the start square already pass through it.
+					else if (enPassantDirection == startDirection && getNumSquaresFromEdge(startDirection, move.getStart()) > getNumSquaresFromEdge(startDirection, square)) {
+						return true;
+					}
 					else {
 						addAttacks(enPassantDirection, square);
 					}
@@ -597,8 +619,8 @@ public class ChessPiece {
 	 * @param attacksOnly Whether or not captures only should be returned.
 	 */
 	private void knightMoves(ArrayList<Move> moves, boolean attacksOnly) {
-		//If a knight is pinned it has no legal moves.
-		if (!pinPiece.isEmpty()) return;
+		//If a knight is pinned it has no legal moves, the copy is still filled when regenerating so it's complete once unpinned.
+		if (!pinPiece.isEmpty() && !updatingCopy) return;
 
 		//Skips regenerating moves if a stored copy is available.
 		if (!updatingCopy) {
@@ -1,6 +1,8 @@
 package Chess;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 import Chess.ChessBoard.BoardStorage;
 import Chess.Constants.PieceConstants.PieceType;
@@ -9,6 +11,7 @@ import Chess.TranspositionTable.TTEntry;
 import static Chess.Constants.MoveConstants.*;
 import static Chess.Constants.PieceConstants.*;
 import static Chess.Constants.PositionConstants.*;
+import static Chess.Constants.SearchConstants.*;
 import static Chess.BoardUtil.*;
 
 /**
@@ -16,8 +19,88 @@ import static Chess.BoardUtil.*;
  */
 public class Computer {
 
+	/**
+	 * Class to store the outcome of a search.
+	 */
+	public static class SearchResult {
+		/** The best move found packed with its promotion, see {@link BoardUtil#toSearchMove(Move, PieceType)}. */
+		public final int bestMove;
+		public final int score;
+		public final int depth;
+		public final long nodes;
+		/** The expected line of play starting with the best move, as search moves. */
+		public final int[] pv;
+		/** The rank of the line in multi-PV mode, 1 for the best line. */
+		public final int multiPV;
+
+		/**
+		 * Creates a new SearchResult object.
+		 * @param bestMove The best move found, 0 if the side to move has no legal moves.
+		 * @param score The score of the best move from the perspective of the side to move.
+		 * @param depth The deepest iteration the main thread completed.
+		 * @param nodes The number of nodes searched, by all threads for a finished search.
+		 * @param pv The expected line of play starting with the best move.
+		 * @param multiPV The rank of the line, 1 for the best line.
+		 */
+		public SearchResult(int bestMove, int score, int depth, long nodes, int[] pv, int multiPV) {
+			this.bestMove = bestMove;
+			this.score = score;
+			this.depth = depth;
+			this.nodes = nodes;
+			this.pv = pv;
+			this.multiPV = multiPV;
+		}
+
+		/**
+		 * Returns the best move without its promotion.
+		 * @return The best move, null if the side to move has no legal moves.
+		 */
+		public Move getMove() {
+			return bestMove == 0 ? null : new Move(bestMove & MOVE_MASK);
+		}
+
+		/**
+		 * Returns the type the best move promotes to.
+		 * @return The promotion type, null if the move isn't a promotion.
+		 */
+		public PieceType getPromotion() {
+			return BoardUtil.getPromotion(bestMove);
+		}
+
+		@Override
+		public String toString() {
+			String line = "";
+			for (final int move : pv) {
+				line += " " + searchMoveToString(move);
+			}
+			return "Depth: " + depth + ", MultiPV: " + multiPV + ", Score: " + score + ", Nodes: " + nodes + ", Best Move: " + (bestMove == 0 ? "none" : searchMoveToString(bestMove))
+				+ ", PV:" + line;
+		}
+	}
+
 	public final ChessBoard board;
 	public final TranspositionTable table;
+	/** Filled in by the table probes of perft. */
+	private final TTEntry tableEntry;
+
+	private int threads;
+	private int multiPV;
+	private boolean principalVariationSearch;
+	private boolean lazyEvaluation;
+	/** Opening book played from before searching, null when there is none. */
+	private OpeningBook book;
+	private Consumer<SearchResult> listener;
+	private ArrayList<SearchResult> lines;
+	private volatile boolean stopped;
+	private volatile TimeManager timeManager;
+
+	/** One evaluator per search thread, kept between searches so their pawn tables stay warm. */
+	private Evaluator[] evaluators;
+
+	/** Background search of the position after the expected reply, null when not pondering. */
+	private Thread ponderThread;
+	private int ponderMove;
+	private SearchResult ponderResult;
 	
 	/**
 	 * Creates a new computer player with the specified board.
@@ -25,7 +108,325 @@ public class Computer {
 	 */
 	public Computer(ChessBoard board) {
 		this.board = board;
-		table = new TranspositionTable(20);
+		table = new TranspositionTable(TABLE_SIZE_MB);
+		tableEntry = new TTEntry();
+		threads = DEFAULT_THREADS;
+		multiPV = 1;
+		principalVariationSearch = true;
+		lazyEvaluation = true;
+		book = null;
+		listener = null;
+		lines = new ArrayList<SearchResult>();
+		stopped = false;
+		ponderThread = null;
+		ponderMove = 0;
+		ponderResult = null;
+		evaluators = new Evaluator[0];
+	}
+
+	/**
+	 * Searches for the best move to a fixed depth.
+	 * @param depth The depth to search to.
+	 * @return The result of the main thread's search.
+	 */
+	public SearchResult search(int depth) {
+		return search(SearchLimits.depth(depth));
+	}
+
+	/**
+	 * Searches for the best move using lazy SMP: every thread searches its own copy of the board and shares the transposition table.
+	 * The main thread searches the computer's board and reports the result, helper threads are stopped once it finishes.
+	 * The search can be cancelled from another thread with {@link Computer#stop()}, the best move of the last finished iteration is returned.
+	 * Positions in the opening book aren't searched, a book move is returned with depth 0.
+	 * @param limits When the search should stop.
+	 * @return The result of the main thread's search.
+	 */
+	public SearchResult search(SearchLimits limits) {
+		if (isPondering()) stopPondering();
+		stopped = false;
+		if (book != null) {
+			final int bookMove = book.getMove(board);
+			if (bookMove != 0) {
+				final SearchResult result = new SearchResult(bookMove, 0, 0, 0, new int[] {bookMove}, 1);
+				lines = new ArrayList<SearchResult>();
+				lines.add(result);
+				return result;
+			}
+		}
+		return runSearch(board, new TimeManager(limits, false), limits.getDepth());
+	}
+
+	/**
+	 * Runs the lazy SMP search on a position, the main thread searches the given board and helpers search copies of it.
+	 * @param root The board to search.
+	 * @param manager The time manager of the search.
+	 * @param depth The depth to search to.
+	 * @return The result of the main thread's search.
+	 */
+	private SearchResult runSearch(ChessBoard root, TimeManager manager, int depth) {
+		timeManager = manager;
+		table.newSearch();
+		if (evaluators.length < threads) {
+			final Evaluator[] grown = Arrays.copyOf(evaluators, threads);
+			for (int i = evaluators.length; i < threads; i++) {
+				grown[i] = new Evaluator();
+			}
+			evaluators = grown;
+		}
+
+		//Copies are made before the main thread starts modifying the board.
+		final SearchThread[] helpers = new SearchThread[threads - 1];
+		final Thread[] workers = new Thread[threads - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i] = new SearchThread(this, root.copy(), evaluators[i + 1], i + 1, depth);
+			workers[i] = new Thread(helpers[i], "SearchThread-" + (i + 1));
+			workers[i].setDaemon(true);
+		}
+		for (final Thread worker : workers) {
+			worker.start();
+		}
+
+		final SearchThread main = new SearchThread(this, root, evaluators[0], 0, depth);
+		main.run();
+		stopped = true;
+
+		long nodes = main.getNodes();
+		for (int i = 0; i < workers.length; i++) {
+			try {
+				workers[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			nodes += helpers[i].getNodes();
+		}
+		lines = main.getLines();
+		final int[] pv = lines.isEmpty() ? new int[0] : lines.get(0).pv;
+		return new SearchResult(main.getBestMove(), main.getBestScore(), main.getCompletedDepth(), nodes, pv, 1);
+	}
+
+	/**
+	 * Starts searching the position after the opponent's expected reply on a background thread while the opponent thinks.
+	 * The limits only start counting once {@link Computer#ponderHit()} is called.
+	 * @param ponderMove The expected reply as a search move, usually the second move of the last search's PV.
+	 * @param limits The limits of the search once the expected reply is played.
+	 */
+	public void startPondering(int ponderMove, SearchLimits limits) {
+		if (isPondering()) stopPondering();
+
+		//The board is copied so the game can continue while the computer ponders.
+		final ChessBoard ponderBoard = board.copy();
+		final Move move = new Move(ponderMove & MOVE_MASK);
+		ponderBoard.makeMove(move);
+		if (BoardUtil.getPromotion(ponderMove) != null) ponderBoard.promote(BoardUtil.getPromotion(ponderMove));
+
+		this.ponderMove = ponderMove;
+		ponderResult = null;
+		stopped = false;
+		final TimeManager manager = new TimeManager(limits, true);
+		timeManager = manager;		//Set before the thread starts so a ponder hit can't miss it.
+		ponderThread = new Thread(() -> ponderResult = runSearch(ponderBoard, manager, limits.getDepth()), "PonderThread");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+
+	/**
+	 * The opponent played the expected reply, the ponder search continues as a normal search with its limits starting now.
+	 * @return The result of the search.
+	 */
+	public SearchResult ponderHit() {
+		if (!isPondering()) throw new IllegalStateException("Not pondering");
+		timeManager.ponderHit();
+		return finishPondering();
+	}
+
+	/**
+	 * The opponent played a different move, stops the ponder search. The table keeps everything it learned.
+	 */
+	public void stopPondering() {
+		if (!isPondering()) return;
+		stop();
+		finishPondering();
+	}
+
+	/**
+	 * Waits for the ponder search to finish and clears the ponder state.
+	 * @return The result of the ponder search.
+	 */
+	private SearchResult finishPondering() {
+		try {
+			ponderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		ponderThread = null;
+		ponderMove = 0;
+		return ponderResult;
+	}
+
+	/**
+	 * Returns whether or not the computer is pondering.
+	 * @return True if a ponder search is running or waiting for a ponder hit, false otherwise.
+	 */
+	public boolean isPondering() {
+		return ponderThread != null;
+	}
+
+	/**
+	 * Returns the reply the computer is pondering on.
+	 * @return The expected reply as a search move, 0 if not pondering.
+	 */
+	public int getPonderMove() {
+		return ponderMove;
+	}
+
+	/**
+	 * Passes a line found by the main thread to the listener, called once per line at every depth.
+	 * @param result The line that was found.
+	 */
+	public void report(SearchResult result) {
+		if (listener != null) listener.accept(result);
+	}
+
+	/**
+	 * Sets the listener that receives each line as soon as it is found, called from the searching thread.
+	 * @param listener The listener, null to stop receiving lines.
+	 */
+	public void setListener(Consumer<SearchResult> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the number of lines the search finds, each line starts with a different root move and all lines share the table.
+	 * @param multiPV The number of lines, 1 for a normal search.
+	 */
+	public void setMultiPV(int multiPV) {
+		if (multiPV < 1) throw new IllegalArgumentException("Invalid number of lines");
+		this.multiPV = multiPV;
+	}
+
+	/**
+	 * Returns the number of lines the search finds.
+	 * @return The number of lines, 1 for a normal search.
+	 */
+	public int getMultiPV() {
+		return multiPV;
+	}
+
+	/**
+	 * Returns the lines of the deepest iteration the last search completed.
+	 * @return The lines ordered best first, may be fewer than the multi-PV setting if there are fewer legal moves.
+	 */
+	public ArrayList<SearchResult> getLines() {
+		return lines;
+	}
+
+	/**
+	 * Stops the current search, threads finish the node they are on and return.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Adds a batch of nodes searched by a thread and stops the search if the node limit or hard time limit is reached.
+	 * @param batch The number of nodes searched since the thread last reported.
+	 */
+	public void checkLimits(long batch) {
+		if (timeManager.checkLimits(batch)) stop();
+	}
+
+	/**
+	 * Decides whether or not the main thread should start another iteration, stops the helper threads if not.
+	 * @param stability The number of consecutive iterations the best move has not changed.
+	 * @return True if the search should stop, false otherwise.
+	 */
+	public boolean shouldStopIteration(int stability) {
+		if (!timeManager.shouldStopIteration(stability)) return false;
+		stop();
+		return true;
+	}
+
+	/**
+	 * Returns whether or not the current search has been stopped.
+	 * @return True if the search threads should return, false otherwise.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Sets the number of threads used by the search, takes effect on the next search.
+	 * @param threads The number of threads including the main thread.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("Invalid thread count");
+		this.threads = threads;
+	}
+
+	/**
+	 * Enables or disables principal variation search and aspiration windows, plain alpha-beta is used when disabled.
+	 * @param enabled Whether or not to use principal variation search.
+	 */
+	public void setPrincipalVariationSearch(boolean enabled) {
+		principalVariationSearch = enabled;
+	}
+
+	/**
+	 * Returns whether or not principal variation search and aspiration windows are used.
+	 * @return True if enabled, false if plain alpha-beta is used.
+	 */
+	public boolean isPrincipalVariationSearch() {
+		return principalVariationSearch;
+	}
+
+	/**
+	 * Enables or disables lazy evaluation in the quiescence search, every evaluation is complete when disabled.
+	 * @param enabled Whether or not to evaluate lazily.
+	 */
+	public void setLazyEvaluation(boolean enabled) {
+		lazyEvaluation = enabled;
+	}
+
+	/**
+	 * Returns whether or not the quiescence search evaluates lazily.
+	 * @return True if enabled, false if every evaluation is complete.
+	 */
+	public boolean isLazyEvaluation() {
+		return lazyEvaluation;
+	}
+
+	/**
+	 * Sets the opening book played from before searching, its positions are looked up by Polyglot hash so the keys must be loaded.
+	 * @param book The book, null to always search.
+	 */
+	public void setBook(OpeningBook book) {
+		if (book != null && !ZobristHashing.hasPolyglotKeys()) throw new IllegalStateException("Polyglot keys not loaded");
+		this.book = book;
+	}
+
+	/**
+	 * Resizes the transposition table, everything it learned is lost. Must not be called during a search.
+	 * @param megabytes The size of the table in megabytes.
+	 */
+	public void setTableSize(int megabytes) {
+		table.resize(megabytes);
+	}
+
+	/**
+	 * Returns the number of threads used by the search.
+	 * @return The number of threads including the main thread.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the evaluator of a search thread, null if no search has used that many threads yet.
+	 * @param threadID 0 for the main thread, helper threads are numbered from 1.
+	 * @return The evaluator.
+	 */
+	public Evaluator getEvaluator(int threadID) {
+		return threadID < evaluators.length ? evaluators[threadID] : null;
 	}
 
 	/**
@@ -45,9 +446,8 @@ public class Computer {
 	 */
 	public int totalMoves(int depth, boolean useZobristHashing) {
 		if (useZobristHashing) {
-			TTEntry entry = table.lookup(board.hash());
-			if (entry != null && entry.depth == depth) {
-				return entry.score;
+			if (table.probe(board.hash(), tableEntry) && tableEntry.depth == depth) {
+				return tableEntry.score;
 			}
 		}
 
@@ -3,7 +3,8 @@ package Chess;
 public class Constants {
 
 	public static class MoveConstants {
-		public static final int HALF_MOVE_TIMER = 50;
+		public static final int HALF_MOVE_TIMER = 100;
+		public static final int HISTORY_CAPACITY = 256;		//Initial size of the position history, grown as games get longer.
 
 		public static final boolean shouldCopyOptimize = true;
 
@@ -25,6 +26,10 @@ public class Constants {
 
 		public static final boolean CHECKS = true;
 
+		//Search moves store the promotion type above the 13 bits used by the move ID.
+		public static final int MOVE_MASK = 0x1FFF;
+		public static final int PROMOTION_SHIFT = 13;
+
 	}
 
 	public static class DirectionConstants {
@@ -209,5 +214,260 @@ public class Constants {
 		public static final int DRAW = 0;
 		public static final int WIN = 1;
 		public static final int CONTINUE = 2;
+
+		//Material values indexed by piece type, kings are never counted.
+		public static final int[] PIECE_VALUES = new int[] {
+			100,
+			320,
+			330,
+			500,
+			900
+		};
+
+		//Endgame material values, minor pieces lose value and pawns and rooks gain value as the board empties.
+		public static final int[] ENDGAME_PIECE_VALUES = new int[] {
+			120,
+			300,
+			320,
+			520,
+			920
+		};
+
+		//Game phase each piece type is worth, the starting position is TOTAL_PHASE and bare kings are 0.
+		public static final int[] PHASE_WEIGHTS = new int[] {
+			0,
+			1,
+			1,
+			2,
+			4,
+			0
+		};
+		public static final int TOTAL_PHASE = 24;
+
+		//Middlegame piece-square tables indexed by piece type then square, from white's perspective with a8 as square 0.
+		//Black pieces use the square mirrored vertically, pos ^ 56.
+		public static final int[][] PIECE_SQUARE_TABLES = new int[][] {
+			//Pawn
+			new int[] {
+				 0,  0,  0,  0,  0,  0,  0,  0,
+				50, 50, 50, 50, 50, 50, 50, 50,
+				10, 10, 20, 30, 30, 20, 10, 10,
+				 5,  5, 10, 25, 25, 10,  5,  5,
+				 0,  0,  0, 20, 20,  0,  0,  0,
+				 5, -5,-10,  0,  0,-10, -5,  5,
+				 5, 10, 10,-20,-20, 10, 10,  5,
+				 0,  0,  0,  0,  0,  0,  0,  0
+			},
+			//Knight
+			new int[] {
+				-50,-40,-30,-30,-30,-30,-40,-50,
+				-40,-20,  0,  0,  0,  0,-20,-40,
+				-30,  0, 10, 15, 15, 10,  0,-30,
+				-30,  5, 15, 20, 20, 15,  5,-30,
+				-30,  0, 15, 20, 20, 15,  0,-30,
+				-30,  5, 10, 15, 15, 10,  5,-30,
+				-40,-20,  0,  5,  5,  0,-20,-40,
+				-50,-40,-30,-30,-30,-30,-40,-50
+			},
+			//Bishop
+			new int[] {
+				-20,-10,-10,-10,-10,-10,-10,-20,
+				-10,  0,  0,  0,  0,  0,  0,-10,
+				-10,  0,  5, 10, 10,  5,  0,-10,
+				-10,  5,  5, 10, 10,  5,  5,-10,
+				-10,  0, 10, 10, 10, 10,  0,-10,
+				-10, 10, 10, 10, 10, 10, 10,-10,
+				-10,  5,  0,  0,  0,  0,  5,-10,
+				-20,-10,-10,-10,-10,-10,-10,-20
+			},
+			//Rook
+			new int[] {
+				 0,  0,  0,  0,  0,  0,  0,  0,
+				 5, 10, 10, 10, 10, 10, 10,  5,
+				-5,  0,  0,  0,  0,  0,  0, -5,
+				-5,  0,  0,  0,  0,  0,  0, -5,
+				-5,  0,  0,  0,  0,  0,  0, -5,
+				-5,  0,  0,  0,  0,  0,  0, -5,
+				-5,  0,  0,  0,  0,  0,  0, -5,
+				 0,  0,  0,  5,  5,  0,  0,  0
+			},
+			//Queen
+			new int[] {
+				-20,-10,-10, -5, -5,-10,-10,-20,
+				-10,  0,  0,  0,  0,  0,  0,-10,
+				-10,  0,  5,  5,  5,  5,  0,-10,
+				 -5,  0,  5,  5,  5,  5,  0, -5,
+				  0,  0,  5,  5,  5,  5,  0, -5,
+				-10,  5,  5,  5,  5,  5,  0,-10,
+				-10,  0,  5,  0,  0,  0,  0,-10,
+				-20,-10,-10, -5, -5,-10,-10,-20
+			},
+			//King
+			new int[] {
+				-30,-40,-40,-50,-50,-40,-40,-30,
+				-30,-40,-40,-50,-50,-40,-40,-30,
+				-30,-40,-40,-50,-50,-40,-40,-30,
+				-30,-40,-40,-50,-50,-40,-40,-30,
+				-20,-30,-30,-40,-40,-30,-30,-20,
+				-10,-20,-20,-20,-20,-20,-20,-10,
+				 20, 20,  0,  0,  0,  0, 20, 20,
+				 20, 30, 10,  0,  0, 10, 30, 20
+			}
+		};
+
+		//Pawn structure terms, {Midgame, Endgame}.
+		public static final int[] DOUBLED_PAWN = new int[] {-10, -20};
+		public static final int[] ISOLATED_PAWN = new int[] {-10, -15};
+		public static final int[] BACKWARD_PAWN = new int[] {-8, -10};
+
+		//Passed pawn bonus indexed by rank relative to the pawn's color, {Midgame, Endgame}.
+		public static final int[][] PASSED_PAWN = new int[][] {
+			new int[] {0, 0},
+			new int[] {5, 10},
+			new int[] {10, 20},
+			new int[] {15, 35},
+			new int[] {25, 60},
+			new int[] {40, 100},
+			new int[] {60, 150},
+			new int[] {0, 0}
+		};
+
+		//Bonus for each pawn one or two squares in front of its king on the king's file or an adjacent one, {Midgame, Endgame}.
+		public static final int[][] PAWN_SHIELD = new int[][] {
+			new int[] {10, 0},
+			new int[] {5, 0}
+		};
+
+		public static final int PAWN_TABLE_SIZE_POWER = 14;
+		public static final int EVAL_CACHE_SIZE_POWER = 16;
+
+		//How far the material and piece-square score must be outside the window for the lazy evaluation to skip the other terms.
+		public static final int LAZY_EVAL_MARGIN = 200;
+
+		//Specialised endgames, a won endgame scores KNOWN_WIN on top of its material so the search heads for it and the weights below guide the mate.
+		public static final int KNOWN_WIN = 10000;
+		public static final int ENDGAME_TABLE_SIZE_POWER = 8;
+		public static final int EDGE_PUSH_WEIGHT = 20;		//Per step the losing king is closer to the edge.
+		public static final int CORNER_PUSH_WEIGHT = 20;		//Per step the losing king is closer to a corner the bishop can attack.
+		public static final int KING_PROXIMITY_WEIGHT = 10;		//Per step the kings are closer.
+		public static final int PAWN_ADVANCE_WEIGHT = 20;		//Per step a pawn that's known to promote has advanced.
+
+		//Bonus for each pseudo-legal move a piece has beyond its baseline, indexed by piece type, {Midgame, Endgame}.
+		public static final int[][] MOBILITY_WEIGHTS = new int[][] {
+			new int[] {0, 0},
+			new int[] {4, 4},
+			new int[] {5, 5},
+			new int[] {2, 4},
+			new int[] {1, 2},
+			new int[] {0, 0}
+		};
+		//Number of moves a piece of each type is expected to have, fewer moves than this is penalized.
+		public static final int[] MOBILITY_BASELINE = new int[] {0, 4, 6, 7, 13, 0};
+
+		//Attack units each enemy piece adds for every square it attacks around the king, indexed by piece type.
+		public static final int[] KING_ZONE_ATTACK_WEIGHTS = new int[] {1, 2, 2, 3, 5, 0};
+		//Midgame penalty for the attack units on the king zone, growing faster than linearly as attacks pile up.
+		public static final int[] KING_DANGER = new int[] {
+			0, 0, 1, 2, 4, 6, 9, 12, 16, 20,
+			25, 30, 36, 42, 49, 56, 64, 72, 81, 90,
+			100, 110, 121, 132, 144, 156, 169, 182, 196, 210,
+			225, 240, 256, 272, 289, 306, 324, 342, 361, 380,
+			400
+		};
+
+		//Neural network, HalfKP inputs: own king square, then piece color relative to the perspective and type (kings excluded), then square.
+		public static final int NETWORK_INPUTS = 64 * 10 * 64;
+		public static final int NETWORK_MAGIC = 0x4E4E5545;		//"NNUE"
+		public static final int NETWORK_VERSION = 1;
+		public static final int NETWORK_QA = 255;		//Quantization of the accumulator, also the clipped ReLU ceiling.
+		public static final int NETWORK_QB = 64;		//Quantization of the output weights.
+		public static final int NETWORK_SCALE = 400;		//Centipawns per unit of network output.
+
+		//Endgame piece-square tables, pawns are pushed towards promotion and the king is pulled to the center.
+		public static final int[][] ENDGAME_PIECE_SQUARE_TABLES = new int[][] {
+			//Pawn
+			new int[] {
+				 0,  0,  0,  0,  0,  0,  0,  0,
+				80, 80, 80, 80, 80, 80, 80, 80,
+				50, 50, 50, 50, 50, 50, 50, 50,
+				30, 30, 30, 30, 30, 30, 30, 30,
+				15, 15, 15, 15, 15, 15, 15, 15,
+				 5,  5,  5,  5,  5,  5,  5,  5,
+				 0,  0,  0,  0,  0,  0,  0,  0,
+				 0,  0,  0,  0,  0,  0,  0,  0
+			},
+			PIECE_SQUARE_TABLES[1],
+			PIECE_SQUARE_TABLES[2],
+			PIECE_SQUARE_TABLES[3],
+			PIECE_SQUARE_TABLES[4],
+			//King
+			new int[] {
+				-50,-40,-30,-20,-20,-30,-40,-50,
+				-30,-20,-10,  0,  0,-10,-20,-30,
+				-30,-10, 20, 30, 30, 20,-10,-30,
+				-30,-10, 30, 40, 40, 30,-10,-30,
+				-30,-10, 30, 40, 40, 30,-10,-30,
+				-30,-10, 20, 30, 30, 20,-10,-30,
+				-30,-30,  0,  0,  0,  0,-30,-30,
+				-50,-30,-30,-30,-30,-30,-30,-50
+			}
+		};
+	}
+
+	public static class SearchConstants {
+		public static final int MAX_PLY = 128;
+
+		public static final int INFINITY = 32000;
+		public static final int MATE_SCORE = 31000;
+		//Any score beyond this bound is a forced mate.
+		public static final int MATE_BOUND = MATE_SCORE - MAX_PLY;
+		public static final int DRAW_SCORE = 0;
+
+		public static final int DEFAULT_THREADS = 1;
+		public static final int TABLE_SIZE_MB = 16;
+
+		//Aspiration windows.
+		public static final int ASPIRATION_WINDOW = 25;
+		public static final int ASPIRATION_MIN_DEPTH = 4;
+
+		//Time management.
+		public static final int MAX_DEPTH = 64;
+		public static final int NODE_CHECK_INTERVAL = 2048;		//Must be a power of 2.
+		public static final long MOVE_OVERHEAD = 30;			//Milliseconds kept in reserve for communication delays.
+		public static final int DEFAULT_MOVES_TO_GO = 40;
+		public static final int MAX_MOVES_TO_GO = 50;
+		public static final int HARD_LIMIT_FACTOR = 4;			//How many times the soft limit a single move may use.
+		public static final long MOVE_TIME_PER_DIFFICULTY = 500;	//Milliseconds the game gives the computer per difficulty level.
+	}
+
+	public static class TuningConstants {
+		public static final int TUNING_CHUNK_SIZE = 8192;			//Positions handled by one fork/join task.
+		public static final int TUNING_QUIESCENCE_DEPTH = 16;		//Captures followed when resolving a position to a quiet one.
+		public static final double TUNING_MAX_K = 3;				//Upper bound searched for the sigmoid scaling constant.
+		public static final int TUNING_K_ITERATIONS = 40;
+		public static final double TUNING_BETA1 = 0.9;				//Adam decay rates.
+		public static final double TUNING_BETA2 = 0.999;
+		public static final double TUNING_EPSILON = 1e-8;
+	}
+
+	public static class BookConstants {
+		//Polyglot keys: 12 * 64 piece keys (black pawn, white pawn, black knight... by rank then file from a1), 4 castling, 8 en passant files, 1 side to move.
+		public static final int POLYGLOT_KEY_COUNT = 781;
+		public static final int POLYGLOT_CASTLING_OFFSET = 768;
+		public static final int POLYGLOT_EN_PASSANT_OFFSET = 772;
+		public static final int POLYGLOT_TURN_OFFSET = 780;
+		public static final long POLYGLOT_START_KEY = 0x463B96181691FC9CL;		//Published hash of the starting position.
+		public static final long POLYGLOT_E4_KEY = 0x823C9B50FD114196L;		//Published hash after 1. e4.
+
+		//Book entries, big endian: key (long), move (short), weight (short), learn (int).
+		public static final int BOOK_ENTRY_BYTES = 16;
+		public static final long POLYGLOT_MAX_WEIGHT = 65535;
+
+		//Result file next to a book, one entry per book entry in the same order, big endian: wins, draws, losses (ints).
+		public static final String BOOK_RESULTS_SUFFIX = ".wdl";
+		public static final int BOOK_RESULTS_BYTES = 12;
+
+		//Number of run files merged at once while building a book, more are merged in several passes.
+		public static final int MAX_MERGE_FAN_IN = 64;
 	}
 }
@@ -0,0 +1,78 @@
+package Chess;
+
+import java.util.Arrays;
+
+/**
+ * Base of the fixed size caches indexed by the low bits of a hash key, each slot keeps the last key stored in it.
+ * Subclasses keep their payload in parallel arrays of {@link DirectMappedTable#size()} slots.
+ * Each search thread owns its own tables so no synchronization is needed.
+ */
+public abstract class DirectMappedTable {
+
+    private final long[] keys;
+    private final int sizeMask;
+
+    private long probes;
+    private long hits;
+
+    protected DirectMappedTable(int sizePowerOf2) {
+        int size = 1 << sizePowerOf2;
+        keys = new long[size];
+        sizeMask = size - 1;
+        probes = 0;
+        hits = 0;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public int index(long key) {
+        return (int)(key) & sizeMask;
+    }
+
+    /**
+     * Checks if the slot of a key holds it, counting the probe.
+     * @return True if the slot holds the key, false otherwise.
+     */
+    public boolean contains(long key) {
+        probes++;
+        if (keys[index(key)] == key) {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the slot of a key for a new entry, always replacing what it held.
+     * @return The index the payload is written at.
+     */
+    protected int claim(long key) {
+        int idx = index(key);
+        keys[idx] = key;
+        return idx;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        probes = 0;
+        hits = 0;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the fraction of probes that found their key.
+     * @return A value from 0 to 1.
+     */
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
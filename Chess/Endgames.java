@@ -0,0 +1,260 @@
+package Chess;
+
+import Chess.Constants.PieceConstants.PieceColor;
+import Chess.Constants.PieceConstants.PieceType;
+
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.PositionConstants.*;
+import static Chess.Constants.SearchConstants.*;
+import static Chess.BoardUtil.*;
+
+/**
+ * Class holding the evaluations of endgames the general terms misjudge, looked up by the board's material key.
+ * Each endgame is registered once per color of the stronger side in a small open addressed table so a lookup is one hash and a probe or two.
+ */
+public class Endgames {
+
+	/**
+	 * Evaluation of one endgame.
+	 */
+	private interface Endgame {
+		/**
+		 * Evaluates a position of the endgame.
+		 * @param board The board to evaluate.
+		 * @param strongSide The color with the extra material.
+		 * @return The score in centipawns from the strong side's perspective, NO_SCORE to fall back to the general evaluation.
+		 */
+		int evaluate(ChessBoard board, PieceColor strongSide);
+	}
+
+	/** Returned when no endgame applies to a position. */
+	public static final int NO_SCORE = Integer.MIN_VALUE;
+
+	private static final int SIZE_MASK = (1 << ENDGAME_TABLE_SIZE_POWER) - 1;
+	private static final long[] KEYS = new long[SIZE_MASK + 1];
+	private static final Endgame[] ENDGAMES = new Endgame[SIZE_MASK + 1];
+	private static final PieceColor[] STRONG_SIDES = new PieceColor[SIZE_MASK + 1];
+
+	/** Material keys of king and pawn against king, indexed by the color of the pawn. */
+	private static final long[] KPK_KEYS = new long[] {
+		materialKey("KP", PieceColor.BLACK), materialKey("KP", PieceColor.WHITE)
+	};
+
+	static {
+		register("KBN", "K", Endgames::kbnk);
+		register("KQ", "K", Endgames::kxk);
+		register("KR", "K", Endgames::kxk);
+		register("KR", "KB", Endgames::krkb);
+		register("KQ", "KP", Endgames::kqkp);
+		register("KP", "K", Endgames::kpk);
+		for (String pawns = "P"; pawns.length() <= 8; pawns += "P") {
+			register("KB" + pawns, "K", Endgames::wrongBishop);
+		}
+	}
+
+	/**
+	 * Checks if the material on a board has a specialised evaluation.
+	 * @param materialKey The board's material key.
+	 * @return True if an endgame is registered for the material, false otherwise.
+	 */
+	public static boolean contains(long materialKey) {
+		return ENDGAMES[find(materialKey)] != null;
+	}
+
+	/**
+	 * Checks if a position is drawn with best play, as far as the bitbases know.
+	 * @param board The board to check.
+	 * @return True if the position is a known draw, false if it's won or unknown.
+	 */
+	public static boolean isKnownDraw(ChessBoard board) {
+		final long materialKey = board.getMaterialKey();
+		for (final PieceColor strongSide : PIECE_COLORS) {
+			if (materialKey == KPK_KEYS[strongSide.arrayIndex]) return !isKPKWin(board, strongSide);
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates a position with the endgame registered for its material.
+	 * @param board The board to evaluate.
+	 * @return The score in centipawns from white's perspective, NO_SCORE if no endgame applies.
+	 */
+	public static int evaluate(ChessBoard board) {
+		final long materialKey = board.getMaterialKey();
+		final int index = find(materialKey);
+		if (ENDGAMES[index] == null) return NO_SCORE;
+
+		final PieceColor strongSide = STRONG_SIDES[index];
+		final int score = ENDGAMES[index].evaluate(board, strongSide);
+		if (score == NO_SCORE) return NO_SCORE;
+		return strongSide == PieceColor.WHITE ? score : -score;
+	}
+
+	/**
+	 * Finds the slot holding a material key, or the empty slot it would go in.
+	 * @param materialKey The material key, 0 for bare kings which always finds an empty slot.
+	 * @return The index of the slot.
+	 */
+	private static int find(long materialKey) {
+		int index = (int) ((materialKey * 0x9E3779B97F4A7C15L) >>> (64 - ENDGAME_TABLE_SIZE_POWER));
+		while (KEYS[index] != 0 && KEYS[index] != materialKey) index = (index + 1) & SIZE_MASK;
+		return index;
+	}
+
+	/**
+	 * Registers an endgame for both colors of the strong side.
+	 * @param strongPieces The strong side's pieces as uppercase letters, starting with its king.
+	 * @param weakPieces The weak side's pieces as uppercase letters, starting with its king.
+	 * @param endgame The evaluation of the endgame.
+	 */
+	private static void register(String strongPieces, String weakPieces, Endgame endgame) {
+		for (final PieceColor strongSide : PIECE_COLORS) {
+			final long materialKey = materialKey(strongPieces, strongSide) + materialKey(weakPieces, flipColor(strongSide));
+			final int index = find(materialKey);
+			KEYS[index] = materialKey;
+			ENDGAMES[index] = endgame;
+			STRONG_SIDES[index] = strongSide;
+		}
+	}
+
+	/**
+	 * Returns the material key of one side's pieces.
+	 * @param pieces The pieces as uppercase letters, the king is skipped.
+	 * @param color The color of the pieces.
+	 * @return The material key of the pieces.
+	 */
+	private static long materialKey(String pieces, PieceColor color) {
+		long materialKey = 0;
+		for (int i = 1; i < pieces.length(); i++) {
+			for (final PieceType type : PIECE_TYPES) {
+				if (type.characterRepresentation == Character.toLowerCase(pieces.charAt(i))) materialKey += materialKeyUnit(color.arrayIndex, type.arrayIndex);
+			}
+		}
+		return materialKey;
+	}
+
+	/**
+	 * King and bishop and knight against king, a win when the losing king is driven to a corner of the bishop's color.
+	 */
+	private static int kbnk(ChessBoard board, PieceColor strongSide) {
+		final int bishop = findPiece(board, strongSide, PieceType.BISHOP);
+		final int knight = findPiece(board, strongSide, PieceType.KNIGHT);
+		final int weakKing = board.getKingPos(flipColor(strongSide));
+
+		//Corners are a8 and h1 for light squared bishops, a1 and h8 for dark squared ones.
+		final int[] corners = squareColor(bishop) == squareColor(0) ? new int[] {0, 63} : new int[] {7, 56};
+		final int cornerDistance = Math.min(getDistance(weakKing, corners[0]), getDistance(weakKing, corners[1]));
+		//The king is kept on the edge while it's walked to the right corner, the knight has to stay close to cover its escape squares.
+		return KNOWN_WIN + ENDGAME_PIECE_VALUES[PieceType.BISHOP.arrayIndex] + ENDGAME_PIECE_VALUES[PieceType.KNIGHT.arrayIndex]
+			+ CORNER_PUSH_WEIGHT * (14 - cornerDistance) + EDGE_PUSH_WEIGHT * (6 - edgeDistance(weakKing))
+			+ kingProximity(board) + KING_PROXIMITY_WEIGHT * (14 - getDistance(knight, weakKing)) / 2;
+	}
+
+	/**
+	 * King and a major piece against king, a win when the losing king is driven to the edge.
+	 */
+	private static int kxk(ChessBoard board, PieceColor strongSide) {
+		final int weakKing = board.getKingPos(flipColor(strongSide));
+		int material = 0;
+		for (final ChessPiece piece : board.getPieces(strongSide)) {
+			if (!piece.isKing()) material += ENDGAME_PIECE_VALUES[piece.getType().arrayIndex];
+		}
+		return KNOWN_WIN + material + EDGE_PUSH_WEIGHT * (6 - edgeDistance(weakKing)) + kingProximity(board);
+	}
+
+	/**
+	 * King and rook against king and bishop, usually a draw; the rook's side only gets credit for pushing the king to the edge.
+	 */
+	private static int krkb(ChessBoard board, PieceColor strongSide) {
+		return EDGE_PUSH_WEIGHT * (6 - edgeDistance(board.getKingPos(flipColor(strongSide)))) / 2;
+	}
+
+	/**
+	 * King and queen against king and pawn, a win unless the pawn is one step from promoting on a rook or bishop file with its king beside it.
+	 */
+	private static int kqkp(ChessBoard board, PieceColor strongSide) {
+		final PieceColor weakSide = flipColor(strongSide);
+		final int pawn = findPiece(board, weakSide, PieceType.PAWN);
+		final int file = getColumn(pawn);
+		final boolean aboutToPromote = getRow(pawn + getPawnDirection(weakSide).rawArrayValue) == PROMOTION_ROW[weakSide.arrayIndex];
+		final boolean drawingFile = file == 0 || file == 2 || file == 5 || file == 7;
+		final int weakKing = board.getKingPos(weakSide);
+		final boolean supported = Math.max(getRowDistance(weakKing, pawn), getColumnDistance(weakKing, pawn)) == 1;
+
+		final int score = kingProximity(board);
+		if (aboutToPromote && drawingFile && supported) return score;
+		return score + ENDGAME_PIECE_VALUES[PieceType.QUEEN.arrayIndex] - ENDGAME_PIECE_VALUES[PieceType.PAWN.arrayIndex];
+	}
+
+	/**
+	 * King, bishop and rook pawns against king, a draw when the bishop can't cover the promotion square and the losing king reaches it.
+	 */
+	private static int wrongBishop(ChessBoard board, PieceColor strongSide) {
+		int file = EMPTY;
+		for (final ChessPiece piece : board.getPieces(strongSide)) {
+			if (!piece.isPawn()) continue;
+			if (file != EMPTY && getColumn(piece.getPos()) != file) return NO_SCORE;
+			file = getColumn(piece.getPos());
+		}
+		if (file != 0 && file != 7) return NO_SCORE;
+
+		final int promotionSquare = PROMOTION_ROW[strongSide.arrayIndex] * 8 + file;
+		if (squareColor(findPiece(board, strongSide, PieceType.BISHOP)) == squareColor(promotionSquare)) return NO_SCORE;
+
+		final int weakKing = board.getKingPos(flipColor(strongSide));
+		if (Math.max(getRowDistance(weakKing, promotionSquare), getColumnDistance(weakKing, promotionSquare)) > 1) return NO_SCORE;
+		return DRAW_SCORE;
+	}
+
+	/**
+	 * King and pawn against king, looked up in the bitbase. A win is worth more the further the pawn has advanced.
+	 */
+	private static int kpk(ChessBoard board, PieceColor strongSide) {
+		if (!isKPKWin(board, strongSide)) return DRAW_SCORE;
+		final int pawn = findPiece(board, strongSide, PieceType.PAWN);
+		final int rowsToPromote = getRowDistance(pawn, PROMOTION_ROW[strongSide.arrayIndex] * 8);
+		return KNOWN_WIN + ENDGAME_PIECE_VALUES[PieceType.PAWN.arrayIndex] + PAWN_ADVANCE_WEIGHT * (6 - rowsToPromote);
+	}
+
+	/**
+	 * Probes the king and pawn against king bitbase.
+	 */
+	private static boolean isKPKWin(ChessBoard board, PieceColor strongSide) {
+		return KPKBitbase.isWin(strongSide, board.getKingPos(strongSide), board.getKingPos(flipColor(strongSide)),
+			findPiece(board, strongSide, PieceType.PAWN), board.getTurn() == strongSide);
+	}
+
+	/**
+	 * Returns the position of the first piece of a type and color.
+	 */
+	private static int findPiece(ChessBoard board, PieceColor color, PieceType type) {
+		for (final ChessPiece piece : board.getPieces(color)) {
+			if (piece.getType() == type) return piece.getPos();
+		}
+		throw new IllegalArgumentException("No " + type + " on the board");
+	}
+
+	/**
+	 * Bonus for the kings being close, the winning king is needed to mate.
+	 */
+	private static int kingProximity(ChessBoard board) {
+		final int whiteKing = board.getKingPos(PieceColor.WHITE);
+		final int blackKing = board.getKingPos(PieceColor.BLACK);
+		return KING_PROXIMITY_WEIGHT * (7 - Math.max(getRowDistance(whiteKing, blackKing), getColumnDistance(whiteKing, blackKing)));
+	}
+
+	/**
+	 * Returns the number of steps from a square to the nearest edge row plus the nearest edge column, 0 in a corner.
+	 */
+	private static int edgeDistance(int pos) {
+		return Math.min(getRow(pos), 7 - getRow(pos)) + Math.min(getColumn(pos), 7 - getColumn(pos));
+	}
+
+	/**
+	 * Returns the color of a square, 0 or 1.
+	 */
+	private static int squareColor(int pos) {
+		return (getRow(pos) + getColumn(pos)) & 1;
+	}
+}
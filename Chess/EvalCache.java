@@ -0,0 +1,24 @@
+package Chess;
+
+/**
+ * Direct mapped table caching static evaluations, keyed by the full position hash.
+ * The stored score is from the perspective of the side to move, which is part of the hash.
+ */
+public class EvalCache extends DirectMappedTable {
+
+    private final int[] scores;
+
+    public EvalCache(int sizePowerOf2) {
+        super(sizePowerOf2);
+        scores = new int[size()];
+    }
+
+    public int getScore(long key) {
+        return scores[index(key)];
+    }
+
+    // Always replace, the evaluation of a position never changes so any entry is as good as another
+    public void store(long key, int score) {
+        scores[claim(key)] = score;
+    }
+}
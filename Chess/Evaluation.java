@@ -0,0 +1,148 @@
+package Chess;
+
+import Chess.Constants.PieceConstants.PieceColor;
+
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.PieceConstants.*;
+
+/**
+ * Class that keeps the material and piece-square score of a board, updated whenever a piece enters or leaves a square.
+ * Separate middlegame and endgame scores are kept and blended by the game phase, which is updated by the same hooks.
+ */
+public final class Evaluation {
+
+	/** Middlegame material plus piece-square value of every piece on every square, indexed by color, type, then square; positive for white. */
+	private static final int[][][] MIDGAME_SCORES = new int[2][6][64];
+	/** Endgame material plus piece-square value of every piece on every square, indexed by color, type, then square; positive for white. */
+	private static final int[][][] ENDGAME_SCORES = new int[2][6][64];
+
+	static {
+		for (int type = 0; type < 6; type++) {
+			//Kings are never captured.
+			final int midgameMaterial = type < PIECE_VALUES.length ? PIECE_VALUES[type] : 0;
+			final int endgameMaterial = type < ENDGAME_PIECE_VALUES.length ? ENDGAME_PIECE_VALUES[type] : 0;
+			for (int pos = 0; pos < 64; pos++) {
+				MIDGAME_SCORES[PieceColor.WHITE.arrayIndex][type][pos] = midgameMaterial + PIECE_SQUARE_TABLES[type][pos];
+				MIDGAME_SCORES[PieceColor.BLACK.arrayIndex][type][pos] = -(midgameMaterial + PIECE_SQUARE_TABLES[type][pos ^ 56]);
+				ENDGAME_SCORES[PieceColor.WHITE.arrayIndex][type][pos] = endgameMaterial + ENDGAME_PIECE_SQUARE_TABLES[type][pos];
+				ENDGAME_SCORES[PieceColor.BLACK.arrayIndex][type][pos] = -(endgameMaterial + ENDGAME_PIECE_SQUARE_TABLES[type][pos ^ 56]);
+			}
+		}
+	}
+
+	private final ChessBoard board;
+
+	/** The middlegame and endgame scores from white's perspective. */
+	private int midgameScore;
+	private int endgameScore;
+
+	/** Sum of the phase weights of every piece on the board, TOTAL_PHASE at the start and 0 with bare kings; can exceed TOTAL_PHASE after promotions. */
+	private int phase;
+
+	/**
+	 * Creates a new evaluation of the board's current position.
+	 * @param board The board to evaluate.
+	 */
+	public Evaluation(ChessBoard board) {
+		this.board = board;
+		computeFullScore();
+	}
+
+	/**
+	 * Recomputes the scores from scratch by scanning every square and the phase from the board's piece counts.
+	 */
+	public void computeFullScore() {
+		midgameScore = 0;
+		endgameScore = 0;
+		for (int pos = 0; pos < 64; pos++) {
+			final ChessPiece piece = board.getPiece(pos);
+			if (piece.isEmpty()) continue;
+			midgameScore += MIDGAME_SCORES[piece.color.arrayIndex][piece.getType().arrayIndex][pos];
+			endgameScore += ENDGAME_SCORES[piece.color.arrayIndex][piece.getType().arrayIndex][pos];
+		}
+
+		phase = 0;
+		for (final PieceColor color : PIECE_COLORS) {
+			for (final PieceType type : PROMOTION_PIECES) {
+				phase += board.getPieceCount(color, type) * PHASE_WEIGHTS[type.arrayIndex];
+			}
+		}
+	}
+
+	/**
+	 * Adds a piece entering a square to the score.
+	 * @param pos The square the piece enters.
+	 * @param piece The piece.
+	 */
+	public void addPiece(int pos, ChessPiece piece) {
+		final int type = piece.getType().arrayIndex;
+		midgameScore += MIDGAME_SCORES[piece.color.arrayIndex][type][pos];
+		endgameScore += ENDGAME_SCORES[piece.color.arrayIndex][type][pos];
+		phase += PHASE_WEIGHTS[type];
+	}
+
+	/**
+	 * Removes a piece leaving a square from the score.
+	 * @param pos The square the piece leaves.
+	 * @param piece The piece.
+	 */
+	public void removePiece(int pos, ChessPiece piece) {
+		final int type = piece.getType().arrayIndex;
+		midgameScore -= MIDGAME_SCORES[piece.color.arrayIndex][type][pos];
+		endgameScore -= ENDGAME_SCORES[piece.color.arrayIndex][type][pos];
+		phase -= PHASE_WEIGHTS[type];
+	}
+
+	/**
+	 * Returns the evaluation of the position.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	public int evaluate() {
+		final int score = getScore();
+		return board.getTurn() == PieceColor.WHITE ? score : -score;
+	}
+
+	/**
+	 * Returns the evaluation of the position from white's perspective, the middlegame and endgame scores blended by the phase.
+	 * @return The score in centipawns, positive if white is better.
+	 */
+	public int getScore() {
+		return taper(midgameScore, endgameScore, phase);
+	}
+
+	/**
+	 * Blends a middlegame and endgame score by the game phase.
+	 * @param midgameScore The middlegame score.
+	 * @param endgameScore The endgame score.
+	 * @param phase The game phase, TOTAL_PHASE or more is pure middlegame and 0 is pure endgame.
+	 * @return The blended score.
+	 */
+	public static int taper(int midgameScore, int endgameScore, int phase) {
+		final int midgameWeight = Math.min(phase, TOTAL_PHASE);
+		return (midgameScore * midgameWeight + endgameScore * (TOTAL_PHASE - midgameWeight)) / TOTAL_PHASE;
+	}
+
+	/**
+	 * Returns the middlegame score.
+	 * @return The middlegame score from white's perspective.
+	 */
+	public int getMidgameScore() {
+		return midgameScore;
+	}
+
+	/**
+	 * Returns the endgame score.
+	 * @return The endgame score from white's perspective.
+	 */
+	public int getEndgameScore() {
+		return endgameScore;
+	}
+
+	/**
+	 * Returns the game phase.
+	 * @return TOTAL_PHASE in the opening down to 0 with bare kings.
+	 */
+	public int getPhase() {
+		return phase;
+	}
+}
@@ -0,0 +1,406 @@
+package Chess;
+
+import java.util.Arrays;
+
+import Chess.Constants.PieceConstants.PieceColor;
+
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.BoardUtil.*;
+
+/**
+ * Class that evaluates positions for a search thread, adding terms that are too expensive to keep incrementally
+ * to the board's material and piece-square score. Each search thread owns one so its caches need no synchronization.
+ */
+public class Evaluator {
+
+	/**
+	 * Receives every weight that contributes to an evaluation and how many times it counts, used to tune the weights.
+	 */
+	public interface Trace {
+		/**
+		 * Records a weight's contribution.
+		 * @param weights The constant array holding the weight.
+		 * @param index The index of the weight in the array.
+		 * @param midgame How many times the weight counts towards the middlegame score from white's perspective.
+		 * @param endgame How many times the weight counts towards the endgame score from white's perspective.
+		 */
+		void add(int[] weights, int index, int midgame, int endgame);
+	}
+
+	private static final int MIDGAME = 0;
+	private static final int ENDGAME = 1;
+
+	private final PawnHashTable pawnTable;
+	private final EvalCache evalCache;
+	/** The network the cached scores were computed with, null for the handcrafted evaluation. */
+	private NeuralNetwork cachedNetwork;
+	/** Trace of the terms of the handcrafted evaluation, null unless tuning. */
+	private Trace trace;
+
+	/** Scratch arrays for the pawn structure, indexed by color then file. */
+	private final int[][] pawnsOnFile;
+	private final int[][] frontPawnRow;
+	private final int[][] rearPawnRow;
+
+	/** Scratch {Midgame, Endgame} score for the mobility and king safety terms. */
+	private final int[] pieceScore;
+
+	/** Lazy evaluations requested, how many returned the material score early, and full evaluations whose other terms were larger than the margin. */
+	private long lazyProbes;
+	private long lazyExits;
+	private long marginExceeded;
+
+	/**
+	 * Creates a new evaluator.
+	 */
+	public Evaluator() {
+		pawnTable = new PawnHashTable(PAWN_TABLE_SIZE_POWER);
+		evalCache = new EvalCache(EVAL_CACHE_SIZE_POWER);
+		cachedNetwork = null;
+		pawnsOnFile = new int[2][8];
+		frontPawnRow = new int[2][8];
+		rearPawnRow = new int[2][8];
+		pieceScore = new int[2];
+		lazyProbes = 0;
+		lazyExits = 0;
+		marginExceeded = 0;
+	}
+
+	/**
+	 * Evaluates the position lazily, the incremental material and piece-square score is returned on its own
+	 * when it's more than {@link Chess.Constants.EvaluateConstants#LAZY_EVAL_MARGIN} outside the window.
+	 * @param board The board to evaluate.
+	 * @param alpha The score the side to move is already guaranteed.
+	 * @param beta The score the opponent is already guaranteed.
+	 * @return The score in centipawns from the perspective of the side to move, only a bound when outside the window.
+	 */
+	public int evaluate(ChessBoard board, int alpha, int beta) {
+		//A network has no cheap part to exit on, and a known endgame's score can be far from its material.
+		if (trace != null || board.getNeuralEvaluation() != null || Endgames.contains(board.getMaterialKey())) return evaluate(board);
+
+		lazyProbes ++;
+		final int materialScore = materialScore(board);
+		if (materialScore - LAZY_EVAL_MARGIN >= beta || materialScore + LAZY_EVAL_MARGIN <= alpha) {
+			lazyExits ++;
+			return materialScore;
+		}
+		return evaluate(board);
+	}
+
+	/**
+	 * Evaluates the position.
+	 * @param board The board to evaluate.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	public int evaluate(ChessBoard board) {
+		//Cached scores have no trace.
+		if (trace != null) return computeEvaluation(board);
+
+		//Scores from another evaluation function are worthless.
+		final NeuralNetwork network = board.getNeuralEvaluation() != null ? board.getNeuralEvaluation().getNetwork() : null;
+		if (network != cachedNetwork) {
+			evalCache.clear();
+			cachedNetwork = network;
+		}
+
+		//The same positions come up again across iterations and transpositions.
+		final long key = board.hash();
+		if (evalCache.contains(key)) return evalCache.getScore(key);
+
+		final int score = computeEvaluation(board);
+		evalCache.store(key, score);
+		return score;
+	}
+
+	/**
+	 * Evaluates the position without the cache.
+	 * @param board The board to evaluate.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	private int computeEvaluation(ChessBoard board) {
+		//Known endgames replace every other term, they aren't made of tunable weights.
+		if (trace == null) {
+			final int endgameScore = Endgames.evaluate(board);
+			if (endgameScore != Endgames.NO_SCORE) return board.getTurn() == PieceColor.WHITE ? endgameScore : -endgameScore;
+		}
+
+		//A network replaces the handcrafted terms entirely.
+		if (board.getNeuralEvaluation() != null) return board.getNeuralEvaluation().evaluate();
+
+		final Evaluation evaluation = board.evaluation;
+		int midgameScore = evaluation.getMidgameScore();
+		int endgameScore = evaluation.getEndgameScore();
+
+		if (trace != null) {
+			tracePieceSquares(board);
+			final int[] pawnScore = evaluatePawns(board);
+			midgameScore += pawnScore[MIDGAME];
+			endgameScore += pawnScore[ENDGAME];
+		}
+		else {
+			//Pawn structure rarely changes, look it up before computing it.
+			final long pawnKey = board.hashing.getPawnHash();
+			if (!pawnTable.contains(pawnKey)) {
+				final int[] pawnScore = evaluatePawns(board);
+				pawnTable.store(pawnKey, pawnScore[MIDGAME], pawnScore[ENDGAME]);
+			}
+			midgameScore += pawnTable.getMidgameScore(pawnKey);
+			endgameScore += pawnTable.getEndgameScore(pawnKey);
+		}
+
+		evaluatePieces(board);
+		midgameScore += pieceScore[MIDGAME];
+		endgameScore += pieceScore[ENDGAME];
+
+		final int score = Evaluation.taper(midgameScore, endgameScore, evaluation.getPhase());
+		final int relativeScore = board.getTurn() == PieceColor.WHITE ? score : -score;
+		//A lazy exit on this position would have been wrong by more than the margin.
+		if (Math.abs(relativeScore - materialScore(board)) > LAZY_EVAL_MARGIN) marginExceeded ++;
+		return relativeScore;
+	}
+
+	/**
+	 * Returns the board's incremental material and piece-square score, tapered.
+	 * @param board The board to evaluate.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	private static int materialScore(ChessBoard board) {
+		final Evaluation evaluation = board.evaluation;
+		final int score = Evaluation.taper(evaluation.getMidgameScore(), evaluation.getEndgameScore(), evaluation.getPhase());
+		return board.getTurn() == PieceColor.WHITE ? score : -score;
+	}
+
+	/**
+	 * Computes the pawn structure: doubled, isolated, backward and passed pawns, and the pawn shield in front of each king.
+	 * @param board The board to evaluate.
+	 * @return The {Midgame, Endgame} score from white's perspective.
+	 */
+	private int[] evaluatePawns(ChessBoard board) {
+		countPawns(board);
+
+		final int[] score = new int[2];
+		for (final PieceColor color : PIECE_COLORS) {
+			final int sign = color == PieceColor.WHITE ? 1 : -1;
+			final int forward = getPawnDirection(color).rawArrayValue;
+
+			for (final ChessPiece piece : board.getPieces(color)) {
+				if (!piece.isPawn()) continue;
+				final int pos = piece.getPos();
+				final int file = getColumn(pos);
+				final int row = getRow(pos);
+
+				boolean supported = false;		//A friendly pawn on an adjacent file level with or behind this one.
+				boolean isolated = true;
+				for (int adjacent = Math.max(0, file - 1); adjacent <= Math.min(7, file + 1); adjacent++) {
+					if (adjacent == file || pawnsOnFile[color.arrayIndex][adjacent] == 0) continue;
+					isolated = false;
+					if (!isAhead(rearPawnRow[color.arrayIndex][adjacent], row, color)) supported = true;
+				}
+
+				if (isolated) addScore(score, ISOLATED_PAWN, sign);
+				//Backward if it can't be supported and the square in front of it is guarded by an enemy pawn.
+				else if (!supported && isGuardedByPawn(board, pos + forward, flipColor(color))) addScore(score, BACKWARD_PAWN, sign);
+
+				if (isPassed(color, file, row)) addScore(score, PASSED_PAWN[color == PieceColor.WHITE ? 7 - row : row], sign);
+			}
+
+			for (int file = 0; file < 8; file++) {
+				if (pawnsOnFile[color.arrayIndex][file] > 1) addScore(score, DOUBLED_PAWN, sign * (pawnsOnFile[color.arrayIndex][file] - 1));
+			}
+
+			//Pawn shield, pawns one or two squares in front of the king.
+			final int kingPos = board.getKingPos(color);
+			for (int file = Math.max(0, getColumn(kingPos) - 1); file <= Math.min(7, getColumn(kingPos) + 1); file++) {
+				for (int distance = 1; distance <= PAWN_SHIELD.length; distance++) {
+					final int shieldPos = getRow(kingPos) * 8 + file + forward * distance;
+					if (!onBoard(shieldPos)) break;
+					final ChessPiece shield = board.getPiece(shieldPos);
+					if (shield.isPawn() && shield.color == color) {
+						addScore(score, PAWN_SHIELD[distance - 1], sign);
+						break;
+					}
+				}
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Computes mobility and king safety from the board's incremental move copies and attack table, no moves are generated.
+	 * The result is stored in pieceScore from white's perspective.
+	 * @param board The board to evaluate.
+	 */
+	private void evaluatePieces(ChessBoard board) {
+		pieceScore[MIDGAME] = 0;
+		pieceScore[ENDGAME] = 0;
+		for (final PieceColor color : PIECE_COLORS) {
+			final int sign = color == PieceColor.WHITE ? 1 : -1;
+
+			//Mobility, the size of each piece's stored pseudo-legal moves.
+			for (final ChessPiece piece : board.getPieces(color)) {
+				if (piece.isPawn() || piece.isKing()) continue;
+				final int type = piece.getType().arrayIndex;
+				addScore(pieceScore, MOBILITY_WEIGHTS[type], sign * (piece.movesCopy.size() - MOBILITY_BASELINE[type]));
+			}
+
+			//King safety, enemy attacks on the king's square and the squares around it.
+			final int kingPos = board.getKingPos(color);
+			int attackUnits = 0;
+			for (int row = Math.max(0, getRow(kingPos) - 1); row <= Math.min(7, getRow(kingPos) + 1); row++) {
+				for (int file = Math.max(0, getColumn(kingPos) - 1); file <= Math.min(7, getColumn(kingPos) + 1); file++) {
+					for (final ChessPiece attacker : board.getAttackers(row * 8 + file, color)) {
+						attackUnits += KING_ZONE_ATTACK_WEIGHTS[attacker.getType().arrayIndex];
+					}
+				}
+			}
+			final int danger = Math.min(attackUnits, KING_DANGER.length - 1);
+			pieceScore[MIDGAME] -= sign * KING_DANGER[danger];
+			if (trace != null) trace.add(KING_DANGER, danger, -sign, 0);
+		}
+	}
+
+	/**
+	 * Checks if a square is guarded by a pawn of a color.
+	 * @param board The board.
+	 * @param pos The square, may be off the board.
+	 * @param color The color of the guarding pawns.
+	 * @return True if a pawn of the color attacks the square, false otherwise.
+	 */
+	private static boolean isGuardedByPawn(ChessBoard board, int pos, PieceColor color) {
+		if (!onBoard(pos)) return false;
+		//A pawn guarding the square stands one row behind it from the pawn's point of view, on an adjacent file.
+		final int row = getRow(pos) - getPawnDirection(color).rawArrayValue / 8;
+		if (row < 0 || row > 7) return false;
+		for (final int file : new int[] {getColumn(pos) - 1, getColumn(pos) + 1}) {
+			if (file < 0 || file > 7) continue;
+			final ChessPiece piece = board.getPiece(row * 8 + file);
+			if (piece.isPawn() && piece.color == color) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the pawns on each file and finds the front and rear pawn of each file.
+	 * Rows run from 0 at the eighth rank to 7 at the first, the front pawn is the one closest to promotion.
+	 * @param board The board to evaluate.
+	 */
+	private void countPawns(ChessBoard board) {
+		for (final PieceColor color : PIECE_COLORS) {
+			Arrays.fill(pawnsOnFile[color.arrayIndex], 0);
+			Arrays.fill(frontPawnRow[color.arrayIndex], color == PieceColor.WHITE ? 8 : -1);
+			Arrays.fill(rearPawnRow[color.arrayIndex], color == PieceColor.WHITE ? -1 : 8);
+			for (final ChessPiece piece : board.getPieces(color)) {
+				if (!piece.isPawn()) continue;
+				final int file = getColumn(piece.getPos());
+				final int row = getRow(piece.getPos());
+				pawnsOnFile[color.arrayIndex][file] ++;
+				if (isAhead(row, frontPawnRow[color.arrayIndex][file], color)) frontPawnRow[color.arrayIndex][file] = row;
+				if (isAhead(rearPawnRow[color.arrayIndex][file], row, color)) rearPawnRow[color.arrayIndex][file] = row;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a pawn is passed, no enemy pawn on its own or an adjacent file is level with or in front of it. Needs {@link Evaluator#countPawns(ChessBoard)}.
+	 * @param color The color of the pawn.
+	 * @param file The file of the pawn.
+	 * @param row The row of the pawn.
+	 * @return True if the pawn is passed, false otherwise.
+	 */
+	private boolean isPassed(PieceColor color, int file, int row) {
+		//Only the front pawn of a file can be passed.
+		if (frontPawnRow[color.arrayIndex][file] != row) return false;
+		final int enemy = flipColor(color).arrayIndex;
+		for (int adjacent = Math.max(0, file - 1); adjacent <= Math.min(7, file + 1); adjacent++) {
+			//The enemy's rear pawn is its furthest ahead from this pawn's side, unless it's behind this pawn the file is blocked.
+			if (pawnsOnFile[enemy][adjacent] > 0 && !isAhead(row, rearPawnRow[enemy][adjacent], color)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the pawn on a square is passed, used by {@link Tests#passedPawnReport()}.
+	 * @param board The board the pawn is on.
+	 * @param pos The square of the pawn.
+	 * @return True if a pawn stands on the square and is passed, false otherwise.
+	 */
+	boolean isPassedPawn(ChessBoard board, int pos) {
+		final ChessPiece piece = board.getPiece(pos);
+		if (!piece.isPawn()) return false;
+		countPawns(board);
+		return isPassed(piece.color, getColumn(pos), getRow(pos));
+	}
+
+	/**
+	 * Checks if a row is closer to promotion than another for a color.
+	 */
+	private static boolean isAhead(int row, int otherRow, PieceColor color) {
+		return color == PieceColor.WHITE ? row < otherRow : row > otherRow;
+	}
+
+	/**
+	 * Adds a {Midgame, Endgame} term to a score.
+	 */
+	private void addScore(int[] score, int[] term, int multiplier) {
+		score[MIDGAME] += term[MIDGAME] * multiplier;
+		score[ENDGAME] += term[ENDGAME] * multiplier;
+		if (trace != null) {
+			trace.add(term, MIDGAME, multiplier, 0);
+			trace.add(term, ENDGAME, 0, multiplier);
+		}
+	}
+
+	/**
+	 * Traces the material and piece-square weights the board's incremental score is made of, mirroring {@link Evaluation}'s tables.
+	 * @param board The board being evaluated.
+	 */
+	private void tracePieceSquares(ChessBoard board) {
+		for (final PieceColor color : PIECE_COLORS) {
+			final int sign = color == PieceColor.WHITE ? 1 : -1;
+			for (final ChessPiece piece : board.getPieces(color)) {
+				final int type = piece.getType().arrayIndex;
+				final int pos = color == PieceColor.WHITE ? piece.getPos() : piece.getPos() ^ 56;
+				if (type < PIECE_VALUES.length) {
+					trace.add(PIECE_VALUES, type, sign, 0);
+					trace.add(ENDGAME_PIECE_VALUES, type, 0, sign);
+				}
+				trace.add(PIECE_SQUARE_TABLES[type], pos, sign, 0);
+				trace.add(ENDGAME_PIECE_SQUARE_TABLES[type], pos, 0, sign);
+			}
+		}
+	}
+
+	public PawnHashTable getPawnTable() {
+		return pawnTable;
+	}
+
+	public EvalCache getEvalCache() {
+		return evalCache;
+	}
+
+	public long getLazyProbes() {
+		return lazyProbes;
+	}
+
+	public long getLazyExits() {
+		return lazyExits;
+	}
+
+	/**
+	 * Returns how many full evaluations differed from the material and piece-square score by more than the lazy margin,
+	 * the number of lazy exits that could have returned a wrong bound had they been taken.
+	 * @return The number of full evaluations outside the margin.
+	 */
+	public long getMarginExceeded() {
+		return marginExceeded;
+	}
+
+	/**
+	 * Sets the trace that receives the weights of each evaluation, the caches are bypassed while a trace is set.
+	 * @param trace The trace, null to stop tracing.
+	 */
+	public void setTrace(Trace trace) {
+		this.trace = trace;
+	}
+}
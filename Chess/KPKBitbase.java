@@ -0,0 +1,181 @@
+package Chess;
+
+import java.util.Arrays;
+
+import Chess.Constants.PieceConstants.PieceColor;
+
+import static Chess.BoardUtil.*;
+
+/**
+ * Class holding whether every king and pawn against king position is won, generated by retrograde iteration when the class is loaded.
+ * Positions are stored with the pawn white and on the a to d files, others are mirrored into them. One bit per position, set when won.
+ */
+public class KPKBitbase {
+
+	/** Pawn squares from the seventh rank to the second on the a to d files. */
+	private static final int PAWN_SQUARES = 24;
+	private static final int SIZE = 2 * PAWN_SQUARES * 64 * 64;
+
+	private static final int WHITE_TO_MOVE = 0;
+	private static final int BLACK_TO_MOVE = 1;
+
+	/** Results during generation, combined by bitwise or over the moves of a position. */
+	private static final byte INVALID = 0;
+	private static final byte UNKNOWN = 1;
+	private static final byte DRAW = 2;
+	private static final byte WIN = 4;
+
+	private static final long[] WINS = new long[SIZE / 64];
+
+	/** King move targets of every square. */
+	private static final int[][] KING_MOVES = new int[64][];
+
+	static {
+		for (int pos = 0; pos < 64; pos++) {
+			int count = 0;
+			final int[] moves = new int[8];
+			for (int row = Math.max(0, getRow(pos) - 1); row <= Math.min(7, getRow(pos) + 1); row++) {
+				for (int column = Math.max(0, getColumn(pos) - 1); column <= Math.min(7, getColumn(pos) + 1); column++) {
+					if (row * 8 + column != pos) moves[count++] = row * 8 + column;
+				}
+			}
+			KING_MOVES[pos] = Arrays.copyOf(moves, count);
+		}
+	}
+
+	static {
+		final byte[] results = new byte[SIZE];
+		for (int index = 0; index < SIZE; index++) results[index] = classify(index);
+
+		//Each pass settles the positions whose moves reach settled positions, until a pass changes nothing.
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int index = 0; index < SIZE; index++) {
+				if (results[index] != UNKNOWN) continue;
+				final byte result = resolve(index, results);
+				if (result == UNKNOWN) continue;
+				results[index] = result;
+				changed = true;
+			}
+		}
+
+		//Positions nothing could settle are draws.
+		for (int index = 0; index < SIZE; index++) {
+			if (results[index] == WIN) WINS[index >>> 6] |= 1L << index;
+		}
+	}
+
+	/**
+	 * Checks if a king and pawn against king position is won for the side with the pawn.
+	 * @param strongSide The color of the side with the pawn.
+	 * @param strongKing The position of the strong side's king.
+	 * @param weakKing The position of the other king.
+	 * @param pawn The position of the pawn.
+	 * @param strongToMove Whether or not the side with the pawn is to move.
+	 * @return True if the side with the pawn wins with best play, false if it's a draw.
+	 */
+	public static boolean isWin(PieceColor strongSide, int strongKing, int weakKing, int pawn, boolean strongToMove) {
+		//Mirror black's pawn to a white one moving up the board, then the pawn onto the a to d files.
+		final int vertical = strongSide == PieceColor.WHITE ? 0 : 56;
+		final int horizontal = getColumn(pawn ^ vertical) < 4 ? 0 : 7;
+		final int mirror = vertical ^ horizontal;
+		final int index = index(strongToMove ? WHITE_TO_MOVE : BLACK_TO_MOVE, strongKing ^ mirror, weakKing ^ mirror, pawn ^ mirror);
+		return (WINS[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Returns the index of a position with a white pawn on the a to d files.
+	 */
+	private static int index(int sideToMove, int whiteKing, int blackKing, int pawn) {
+		final int pawnIndex = (getRow(pawn) - 1) * 4 + getColumn(pawn);
+		return ((sideToMove * PAWN_SQUARES + pawnIndex) * 64 + whiteKing) * 64 + blackKing;
+	}
+
+	/**
+	 * Classifies a position from the pieces alone, without looking at the positions its moves lead to.
+	 * @param index The index of the position.
+	 * @return INVALID, WIN, DRAW, or UNKNOWN if its moves must be looked at.
+	 */
+	private static byte classify(int index) {
+		final int blackKing = index & 63;
+		final int whiteKing = (index >>> 6) & 63;
+		final int pawnIndex = (index >>> 12) % PAWN_SQUARES;
+		final int sideToMove = (index >>> 12) / PAWN_SQUARES;
+		final int pawn = (pawnIndex / 4 + 1) * 8 + pawnIndex % 4;
+
+		if (kingDistance(whiteKing, blackKing) <= 1 || whiteKing == pawn || blackKing == pawn) return INVALID;
+		//Black can't be in check with white to move.
+		if (sideToMove == WHITE_TO_MOVE && pawnAttacks(pawn, blackKing)) return INVALID;
+
+		final int promotion = pawn - 8;
+		if (sideToMove == WHITE_TO_MOVE) {
+			//The pawn promotes and the queen can't be taken.
+			if (getRow(pawn) == 1 && whiteKing != promotion && blackKing != promotion
+				&& (kingDistance(blackKing, promotion) > 1 || kingDistance(whiteKing, promotion) == 1)) return WIN;
+			return UNKNOWN;
+		}
+
+		//Black takes an undefended pawn.
+		if (kingDistance(blackKing, pawn) == 1 && kingDistance(whiteKing, pawn) > 1) return DRAW;
+		//Black has no safe square, stalemate.
+		boolean hasMove = false;
+		for (final int square : kingMoves(blackKing)) {
+			if (kingDistance(whiteKing, square) > 1 && !pawnAttacks(pawn, square)) hasMove = true;
+		}
+		return hasMove ? UNKNOWN : DRAW;
+	}
+
+	/**
+	 * Resolves a position from the results of the positions its moves lead to.
+	 * @param index The index of the position.
+	 * @param results The results found so far.
+	 * @return WIN or DRAW if settled, UNKNOWN otherwise.
+	 */
+	private static byte resolve(int index, byte[] results) {
+		final int blackKing = index & 63;
+		final int whiteKing = (index >>> 6) & 63;
+		final int pawnIndex = (index >>> 12) % PAWN_SQUARES;
+		final int sideToMove = (index >>> 12) / PAWN_SQUARES;
+		final int pawn = (pawnIndex / 4 + 1) * 8 + pawnIndex % 4;
+
+		//Illegal moves lead to invalid positions which add nothing.
+		int combined = INVALID;
+		if (sideToMove == WHITE_TO_MOVE) {
+			for (final int square : kingMoves(whiteKing)) combined |= results[index(BLACK_TO_MOVE, square, blackKing, pawn)];
+
+			//Promotions were classified already, pushes to the seventh rank and below are looked up.
+			final int push = pawn - 8;
+			if (getRow(pawn) > 1 && push != whiteKing && push != blackKing) {
+				combined |= results[index(BLACK_TO_MOVE, whiteKing, blackKing, push)];
+				if (getRow(pawn) == 6 && push - 8 != whiteKing && push - 8 != blackKing) combined |= results[index(BLACK_TO_MOVE, whiteKing, blackKing, push - 8)];
+			}
+			//White wins if any move wins.
+			if ((combined & WIN) != 0) return WIN;
+			return (combined & UNKNOWN) != 0 ? UNKNOWN : DRAW;
+		}
+
+		for (final int square : kingMoves(blackKing)) {
+			//Taking the pawn was classified already.
+			if (square != pawn) combined |= results[index(WHITE_TO_MOVE, whiteKing, square, pawn)];
+		}
+		//Black draws if any move draws.
+		if ((combined & DRAW) != 0) return DRAW;
+		return (combined & UNKNOWN) != 0 ? UNKNOWN : WIN;
+	}
+
+	private static int[] kingMoves(int pos) {
+		return KING_MOVES[pos];
+	}
+
+	private static int kingDistance(int pos1, int pos2) {
+		return Math.max(getRowDistance(pos1, pos2), getColumnDistance(pos1, pos2));
+	}
+
+	/**
+	 * Checks if a white pawn attacks a square.
+	 */
+	private static boolean pawnAttacks(int pawn, int square) {
+		return getRow(square) == getRow(pawn) - 1 && getColumnDistance(pawn, square) == 1;
+	}
+}
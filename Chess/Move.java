@@ -13,6 +13,14 @@ public class Move {
 		moveID = typeAdd + (start << 1) + (finish << 7);
 	}
 
+	public Move(int moveID) {
+		this.moveID = moveID;
+	}
+
+	public int getID() {
+		return moveID;
+	}
+
 	public int getStart() {
 		return (moveID >>> 1) % 64;
 	}
@@ -0,0 +1,181 @@
+package Chess;
+
+import java.util.Arrays;
+
+import Chess.Constants.PieceConstants.PieceColor;
+
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.SearchConstants.*;
+
+/**
+ * Class that keeps the first layer accumulators of a neural network for a board, one per side.
+ * Pieces entering or leaving a square add or subtract their feature's weights; each move pushes a copy of the accumulators
+ * so undoing it just pops the stack. A king move changes every feature of its side, that side is marked dirty and rebuilt when next evaluated.
+ * <p>
+ * The loops over the accumulator are kept to plain short arithmetic on arrays so the JIT can vectorize them.
+ */
+public class NeuralEvaluation {
+
+	private final ChessBoard board;
+	private final NeuralNetwork network;
+	private final int hiddenSize;
+
+	/** Accumulators indexed by stack height, color, then neuron. */
+	private short[][][] accumulators;
+	/** Whether or not an accumulator must be rebuilt from scratch, indexed by stack height then color. */
+	private boolean[][] dirty;
+	private int top;
+
+	/**
+	 * Creates the accumulators of the board's current position.
+	 * @param board The board to evaluate.
+	 * @param network The network to evaluate with.
+	 */
+	public NeuralEvaluation(ChessBoard board, NeuralNetwork network) {
+		this.board = board;
+		this.network = network;
+		hiddenSize = network.hiddenSize;
+		accumulators = new short[0][][];
+		dirty = new boolean[0][];
+		top = 0;
+		grow(MAX_PLY);
+		refresh(PieceColor.BLACK.arrayIndex);
+		refresh(PieceColor.WHITE.arrayIndex);
+	}
+
+	/**
+	 * Saves the accumulators before a move is made.
+	 */
+	public void push() {
+		if (top + 1 == accumulators.length) grow(accumulators.length * 2);
+		for (int color = 0; color < 2; color++) {
+			System.arraycopy(accumulators[top][color], 0, accumulators[top + 1][color], 0, hiddenSize);
+			dirty[top + 1][color] = dirty[top][color];
+		}
+		top++;
+	}
+
+	/**
+	 * Restores the accumulators from before the last move.
+	 */
+	public void pop() {
+		top--;
+	}
+
+	/**
+	 * Adds a piece entering a square to the accumulators.
+	 * @param pos The square the piece enters.
+	 * @param piece The piece.
+	 */
+	public void addPiece(int pos, ChessPiece piece) {
+		updatePiece(pos, piece, 1);
+	}
+
+	/**
+	 * Removes a piece leaving a square from the accumulators.
+	 * @param pos The square the piece leaves.
+	 * @param piece The piece.
+	 */
+	public void removePiece(int pos, ChessPiece piece) {
+		updatePiece(pos, piece, -1);
+	}
+
+	/**
+	 * Adds or subtracts a piece's feature weights from both sides' accumulators.
+	 * @param pos The square of the piece.
+	 * @param piece The piece.
+	 * @param sign 1 to add the piece, -1 to remove it.
+	 */
+	private void updatePiece(int pos, ChessPiece piece, int sign) {
+		//Kings aren't features, moving one changes every feature of its own side.
+		if (piece.isKing()) {
+			dirty[top][piece.color.arrayIndex] = true;
+			return;
+		}
+		for (int color = 0; color < 2; color++) {
+			if (dirty[top][color]) continue;
+			final int offset = NeuralNetwork.featureIndex(color, board.getKingPos(PIECE_COLORS[color]), piece, pos) * hiddenSize;
+			final short[] accumulator = accumulators[top][color];
+			final short[] weights = network.featureWeights;
+			if (sign > 0) {
+				for (int i = 0; i < hiddenSize; i++) {
+					accumulator[i] += weights[offset + i];
+				}
+			}
+			else {
+				for (int i = 0; i < hiddenSize; i++) {
+					accumulator[i] -= weights[offset + i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds a side's accumulator from every piece on the board.
+	 * @param color The index of the side.
+	 */
+	private void refresh(int color) {
+		final short[] accumulator = accumulators[top][color];
+		final short[] weights = network.featureWeights;
+		final int kingPos = board.getKingPos(PIECE_COLORS[color]);
+		System.arraycopy(network.featureBiases, 0, accumulator, 0, hiddenSize);
+		for (int pos = 0; pos < 64; pos++) {
+			final ChessPiece piece = board.getPiece(pos);
+			if (piece.isEmpty() || piece.isKing()) continue;
+			final int offset = NeuralNetwork.featureIndex(color, kingPos, piece, pos) * hiddenSize;
+			for (int i = 0; i < hiddenSize; i++) {
+				accumulator[i] += weights[offset + i];
+			}
+		}
+		dirty[top][color] = false;
+	}
+
+	/**
+	 * Runs the network on the current accumulators.
+	 * @return The score in centipawns from the perspective of the side to move.
+	 */
+	public int evaluate() {
+		for (int color = 0; color < 2; color++) {
+			if (dirty[top][color]) refresh(color);
+		}
+		final int us = board.getTurn().arrayIndex;
+		final long sum = activate(accumulators[top][us], 0) + activate(accumulators[top][us ^ 1], hiddenSize) + network.outputBias;
+		//Kept clear of mate scores whatever the network outputs.
+		return (int) Math.max(-MATE_BOUND + 1, Math.min(MATE_BOUND - 1, sum * NETWORK_SCALE / (NETWORK_QA * NETWORK_QB)));
+	}
+
+	/**
+	 * Applies the clipped ReLU to an accumulator and multiplies it by its half of the output weights.
+	 * @param accumulator The accumulator.
+	 * @param offset The index of the first output weight of the accumulator.
+	 * @return The dot product, quantized by NETWORK_QA * NETWORK_QB.
+	 */
+	private long activate(short[] accumulator, int offset) {
+		final short[] weights = network.outputWeights;
+		long sum = 0;
+		for (int i = 0; i < hiddenSize; i++) {
+			final int activation = Math.min(Math.max(accumulator[i], 0), NETWORK_QA);
+			sum += activation * weights[offset + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Grows the accumulator stack.
+	 * @param capacity The new number of stack entries.
+	 */
+	private void grow(int capacity) {
+		final int oldCapacity = accumulators.length;
+		accumulators = Arrays.copyOf(accumulators, capacity);
+		dirty = Arrays.copyOf(dirty, capacity);
+		for (int i = oldCapacity; i < capacity; i++) {
+			accumulators[i] = new short[2][hiddenSize];
+			dirty[i] = new boolean[2];
+		}
+	}
+
+	public NeuralNetwork getNetwork() {
+		return network;
+	}
+}
@@ -0,0 +1,101 @@
+package Chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import Chess.Constants.PieceConstants.PieceColor;
+
+import static Chess.Constants.EvaluateConstants.*;
+
+/**
+ * Class holding the quantized weights of an NNUE style network: a HalfKP feature layer feeding one accumulator per side,
+ * a clipped ReLU, and a single output neuron. The weights are immutable once loaded and shared by every board using them.
+ * <p>
+ * File layout, little endian: magic, version, hidden size (ints), feature weights (NETWORK_INPUTS * hidden shorts, the weights of one feature
+ * are contiguous), feature biases (hidden shorts), output weights (2 * hidden shorts, side to move first), output bias (int).
+ */
+public class NeuralNetwork {
+
+	public final int hiddenSize;
+	final short[] featureWeights;
+	final short[] featureBiases;
+	final short[] outputWeights;
+	final int outputBias;
+
+	/**
+	 * Creates a network from its weights.
+	 * @param hiddenSize The size of each side's accumulator.
+	 * @param featureWeights The feature layer weights, NETWORK_INPUTS * hiddenSize values.
+	 * @param featureBiases The feature layer biases, hiddenSize values.
+	 * @param outputWeights The output weights, 2 * hiddenSize values with the side to move's accumulator first.
+	 * @param outputBias The output bias, quantized by NETWORK_QA * NETWORK_QB.
+	 */
+	public NeuralNetwork(int hiddenSize, short[] featureWeights, short[] featureBiases, short[] outputWeights, int outputBias) {
+		if (hiddenSize < 1 || featureWeights.length != NETWORK_INPUTS * hiddenSize || featureBiases.length != hiddenSize || outputWeights.length != 2 * hiddenSize) {
+			throw new IllegalArgumentException("Invalid network dimensions");
+		}
+		this.hiddenSize = hiddenSize;
+		this.featureWeights = featureWeights;
+		this.featureBiases = featureBiases;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+	}
+
+	/**
+	 * Loads a network from a weights file.
+	 * @param path The path of the file.
+	 * @return A new NeuralNetwork object.
+	 * @throws IOException If the file can't be read or isn't a network of this version.
+	 */
+	public static NeuralNetwork load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.remaining() < 12 || buffer.getInt() != NETWORK_MAGIC || buffer.getInt() != NETWORK_VERSION) throw new IOException("Not a network file: " + path);
+
+			final int hiddenSize = buffer.getInt();
+			final long expected = 12 + 2L * (NETWORK_INPUTS + 3L) * hiddenSize + 4;
+			if (hiddenSize < 1 || channel.size() != expected) throw new IOException("Corrupt network file: " + path);
+
+			final short[] featureWeights = new short[NETWORK_INPUTS * hiddenSize];
+			final short[] featureBiases = new short[hiddenSize];
+			final short[] outputWeights = new short[2 * hiddenSize];
+			buffer.asShortBuffer().get(featureWeights).get(featureBiases).get(outputWeights);
+			buffer.position(buffer.position() + 2 * (featureWeights.length + featureBiases.length + outputWeights.length));
+			return new NeuralNetwork(hiddenSize, featureWeights, featureBiases, outputWeights, buffer.getInt());
+		}
+	}
+
+	/**
+	 * Saves the network in the format read by {@link NeuralNetwork#load(Path)}.
+	 * @param path The path of the file, replaced if it exists.
+	 * @throws IOException If the file can't be written.
+	 */
+	public void save(Path path) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(12 + 2 * (featureWeights.length + featureBiases.length + outputWeights.length) + 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(NETWORK_MAGIC).putInt(NETWORK_VERSION).putInt(hiddenSize);
+		buffer.asShortBuffer().put(featureWeights).put(featureBiases).put(outputWeights);
+		buffer.position(buffer.position() + 2 * (featureWeights.length + featureBiases.length + outputWeights.length));
+		buffer.putInt(outputBias).flip();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Returns the feature index of a piece from one side's perspective, black's perspective is mirrored so both sides see their king at the bottom.
+	 * @param perspective The side whose accumulator the feature belongs to.
+	 * @param kingPos The position of the perspective's king.
+	 * @param piece The piece, not a king.
+	 * @param pos The position of the piece.
+	 * @return The index of the feature's first weight divided by the hidden size.
+	 */
+	static int featureIndex(int perspective, int kingPos, ChessPiece piece, int pos) {
+		final int orientation = perspective == PieceColor.WHITE.arrayIndex ? 0 : 56;
+		final int relativeColor = piece.color.arrayIndex == perspective ? 0 : 5;
+		return ((kingPos ^ orientation) * 10 + relativeColor + piece.getType().arrayIndex) * 64 + (pos ^ orientation);
+	}
+}
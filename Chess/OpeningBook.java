@@ -0,0 +1,179 @@
+package Chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+import Chess.Constants.PieceConstants.PieceColor;
+import Chess.Constants.PieceConstants.PieceType;
+
+import static Chess.Constants.BookConstants.*;
+import static Chess.Constants.MoveConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.PositionConstants.*;
+import static Chess.BoardUtil.*;
+
+/**
+ * Class reading an opening book in the Polyglot format, the file is memory mapped and searched in place so opening it costs nothing
+ * and a probe only touches the pages it needs. Positions are looked up by their Polyglot hash, see {@link ZobristHashing#loadPolyglotKeys(Path)}.
+ * <p>
+ * Entries are sorted by key, each holds one move of the position and a weight, moves are picked at random in proportion to their weight.
+ * Polyglot moves store the destination file and rank, the origin file and rank and the promotion in 3 bits each, castling is stored as the king capturing its own rook.
+ * <p>
+ * Books written by {@link BookBuilder} come with a result file holding the wins, draws and losses of each entry, it's mapped too when it exists.
+ */
+public class OpeningBook {
+
+	private final ByteBuffer entries;
+	private final ByteBuffer results;		//Null if the book has no result file.
+	private final int size;
+	private final Random random;
+
+	private OpeningBook(ByteBuffer entries, ByteBuffer results) {
+		this.entries = entries;
+		this.results = results;
+		this.size = entries.capacity() / BOOK_ENTRY_BYTES;
+		this.random = new Random();
+	}
+
+	/**
+	 * Opens a Polyglot book.
+	 * @param path The path of the book.
+	 * @return A new OpeningBook object.
+	 * @throws IOException If the file can't be read or isn't made of whole entries, or its result file doesn't match it.
+	 */
+	public static OpeningBook open(Path path) throws IOException {
+		final ByteBuffer entries;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() % BOOK_ENTRY_BYTES != 0 || channel.size() > Integer.MAX_VALUE) throw new IOException("Not a book file: " + path);
+			//The mapping stays valid after the channel is closed.
+			entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		final Path resultsPath = resultsPath(path);
+		if (!Files.exists(resultsPath)) return new OpeningBook(entries, null);
+		try (FileChannel channel = FileChannel.open(resultsPath, StandardOpenOption.READ)) {
+			if (channel.size() != (long) entries.capacity() / BOOK_ENTRY_BYTES * BOOK_RESULTS_BYTES) throw new IOException("Result file doesn't match the book: " + resultsPath);
+			return new OpeningBook(entries, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Returns the path of the result file of a book, the book's path with {@link Chess.Constants.BookConstants#BOOK_RESULTS_SUFFIX} appended.
+	 * @param book The path of the book.
+	 * @return The path of its result file.
+	 */
+	public static Path resultsPath(Path book) {
+		return book.resolveSibling(book.getFileName() + BOOK_RESULTS_SUFFIX);
+	}
+
+	/**
+	 * Returns the number of entries in the book.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Picks a book move for the position, moves with a higher weight are picked more often.
+	 * @param board The position, its side to move plays the move.
+	 * @return The move as a search move, 0 if the position isn't in the book or none of its moves are legal.
+	 */
+	public int getMove(ChessBoard board) {
+		final long key = board.hashing.getPolyglotHash();
+		final ArrayList<Integer> moves = new ArrayList<Integer>();
+		final ArrayList<Integer> weights = new ArrayList<Integer>();
+		int totalWeight = 0;
+		for (int i = firstEntry(key); i < size && keyAt(i) == key; i++) {
+			final int weight = Short.toUnsignedInt(entries.getShort(i * BOOK_ENTRY_BYTES + 10));
+			final int move = toSearchMove(board, Short.toUnsignedInt(entries.getShort(i * BOOK_ENTRY_BYTES + 8)));
+			if (move == 0 || weight == 0) continue;
+			moves.add(move);
+			weights.add(weight);
+			totalWeight += weight;
+		}
+		if (moves.isEmpty()) return 0;
+
+		int pick = random.nextInt(totalWeight);
+		for (int i = 0; i < moves.size(); i++) {
+			pick -= weights.get(i);
+			if (pick < 0) return moves.get(i);
+		}
+		return moves.get(moves.size() - 1);
+	}
+
+	/**
+	 * Returns the results of the games in which a book move was played from the position.
+	 * @param board The position, its side to move plays the move.
+	 * @param move The move as a search move.
+	 * @return The wins, draws and losses of the side to move, null if the move isn't in the book or the book has no result file.
+	 */
+	public int[] getResults(ChessBoard board, int move) {
+		if (results == null) return null;
+		final long key = board.hashing.getPolyglotHash();
+		for (int i = firstEntry(key); i < size && keyAt(i) == key; i++) {
+			if (toSearchMove(board, Short.toUnsignedInt(entries.getShort(i * BOOK_ENTRY_BYTES + 8))) != move) continue;
+			final int offset = i * BOOK_RESULTS_BYTES;
+			return new int[] {results.getInt(offset), results.getInt(offset + 4), results.getInt(offset + 8)};
+		}
+		return null;
+	}
+
+	private long keyAt(int index) {
+		return entries.getLong(index * BOOK_ENTRY_BYTES);
+	}
+
+	/**
+	 * Binary searches the sorted keys, keys are compared unsigned as Polyglot sorts them.
+	 * @param key The Polyglot hash of a position.
+	 * @return The index of the first entry with a key no less than the given one.
+	 */
+	private int firstEntry(long key) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (Long.compareUnsigned(keyAt(middle), key) < 0) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Converts a Polyglot move to the legal move of the position it describes.
+	 * @param board The position.
+	 * @param bookMove The Polyglot move.
+	 * @return The move as a search move, 0 if no legal move matches.
+	 */
+	private static int toSearchMove(ChessBoard board, int bookMove) {
+		//Polyglot ranks count from white's side, squares here start at a8.
+		final int start = (7 - ((bookMove >>> 9) & 7)) * 8 + ((bookMove >>> 6) & 7);
+		int finish = (7 - ((bookMove >>> 3) & 7)) * 8 + (bookMove & 7);
+		final int promotion = (bookMove >>> 12) & 7;
+
+		//Castling is stored as the king capturing its own rook.
+		final ChessPiece piece = board.getPiece(start);
+		final ChessPiece target = board.getPiece(finish);
+		if (piece.isKing() && target.isRook() && target.color == piece.color) {
+			finish = finish > start ? start + 2 : start - 2;
+		}
+
+		final PieceColor turn = board.getTurn();
+		if (piece.isEmpty() || piece.color != turn || promotion > PieceType.QUEEN.arrayIndex) return 0;
+		final ArrayList<Move> moves = new ArrayList<Move>(MAX_MOVES[piece.getType().arrayIndex]);
+		piece.pieceMoves(moves);
+		for (final Move move : moves) {
+			if (move.getFinish() != finish) continue;
+			final boolean promotes = piece.isPawn() && getRow(finish) == PROMOTION_ROW[turn.arrayIndex];
+			if (promotes != (promotion != 0)) return 0;
+			return BoardUtil.toSearchMove(move, promotes ? PIECE_TYPES[promotion] : null);
+		}
+		return 0;
+	}
+}
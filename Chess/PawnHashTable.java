@@ -0,0 +1,31 @@
+package Chess;
+
+/**
+ * Fixed size table caching pawn structure scores, keyed by the pawn and king hash.
+ */
+public class PawnHashTable extends DirectMappedTable {
+
+    private final int[] midgameScores;
+    private final int[] endgameScores;
+
+    public PawnHashTable(int sizePowerOf2) {
+        super(sizePowerOf2);
+        midgameScores = new int[size()];
+        endgameScores = new int[size()];
+    }
+
+    public int getMidgameScore(long key) {
+        return midgameScores[index(key)];
+    }
+
+    public int getEndgameScore(long key) {
+        return endgameScores[index(key)];
+    }
+
+    // Always replace, pawn structures change rarely so the newest entry is the most likely to be needed again
+    public void store(long key, int midgameScore, int endgameScore) {
+        int idx = claim(key);
+        midgameScores[idx] = midgameScore;
+        endgameScores[idx] = endgameScore;
+    }
+}
@@ -0,0 +1,125 @@
+package Chess;
+
+import static Chess.Constants.SearchConstants.*;
+
+/**
+ * Class describing when a search should stop: a depth, node or time limit, or a clock with increment and moves to go.
+ * Limits can be combined, the search stops as soon as any of them is reached.
+ */
+public class SearchLimits {
+
+	private int depth;
+	private long nodes;
+	private long moveTime;
+	private long time;
+	private long increment;
+	private int movesToGo;
+
+	/**
+	 * Creates limits with nothing set, the search runs until the max depth or until it is stopped.
+	 */
+	public SearchLimits() {
+		depth = MAX_DEPTH;
+		nodes = 0;
+		moveTime = 0;
+		time = 0;
+		increment = 0;
+		movesToGo = 0;
+	}
+
+	/**
+	 * Creates limits that search to a fixed depth.
+	 * @param depth The depth to search to.
+	 * @return A new SearchLimits object.
+	 */
+	public static SearchLimits depth(int depth) {
+		return new SearchLimits().setDepth(depth);
+	}
+
+	/**
+	 * Creates limits that search a fixed number of nodes.
+	 * @param nodes The number of nodes to search, summed over all threads.
+	 * @return A new SearchLimits object.
+	 */
+	public static SearchLimits nodes(long nodes) {
+		return new SearchLimits().setNodes(nodes);
+	}
+
+	/**
+	 * Creates limits that search for a fixed amount of time.
+	 * @param moveTime The time to search for in milliseconds.
+	 * @return A new SearchLimits object.
+	 */
+	public static SearchLimits moveTime(long moveTime) {
+		return new SearchLimits().setMoveTime(moveTime);
+	}
+
+	/**
+	 * Creates limits from the side to move's clock.
+	 * @param time The time left on the clock in milliseconds.
+	 * @param increment The time added after each move in milliseconds.
+	 * @param movesToGo The number of moves until the next time control, 0 if the rest of the game must be played in the time left.
+	 * @return A new SearchLimits object.
+	 */
+	public static SearchLimits clock(long time, long increment, int movesToGo) {
+		return new SearchLimits().setClock(time, increment, movesToGo);
+	}
+
+	public SearchLimits setDepth(int depth) {
+		if (depth < 1) throw new IllegalArgumentException("Invalid depth");
+		this.depth = Math.min(depth, MAX_DEPTH);
+		return this;
+	}
+
+	public SearchLimits setNodes(long nodes) {
+		if (nodes < 1) throw new IllegalArgumentException("Invalid node limit");
+		this.nodes = nodes;
+		return this;
+	}
+
+	public SearchLimits setMoveTime(long moveTime) {
+		if (moveTime < 1) throw new IllegalArgumentException("Invalid move time");
+		this.moveTime = moveTime;
+		return this;
+	}
+
+	public SearchLimits setClock(long time, long increment, int movesToGo) {
+		if (time < 1 || increment < 0 || movesToGo < 0) throw new IllegalArgumentException("Invalid clock");
+		this.time = time;
+		this.increment = increment;
+		this.movesToGo = movesToGo;
+		return this;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getMoveTime() {
+		return moveTime;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public long getIncrement() {
+		return increment;
+	}
+
+	public int getMovesToGo() {
+		return movesToGo;
+	}
+
+	/**
+	 * Returns whether or not the search is limited by time.
+	 * @return True if a move time or clock is set, false otherwise.
+	 */
+	public boolean isTimed() {
+		return moveTime > 0 || time > 0;
+	}
+}
@@ -0,0 +1,547 @@
+package Chess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import Chess.ChessBoard.BoardStorage;
+import Chess.Constants.PieceConstants.PieceType;
+import Chess.TranspositionTable.TTEntry;
+
+import static Chess.Constants.MoveConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.PositionConstants.*;
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.SearchConstants.*;
+import static Chess.BoardUtil.*;
+
+/**
+ * A single worker of the lazy SMP search, searches its own copy of the board and shares the transposition table.
+ */
+public class SearchThread implements Runnable {
+
+	private final Computer computer;
+	private final ChessBoard board;
+	private final TranspositionTable table;
+	/** Filled in by every table probe, read before the search goes deeper. */
+	private final TTEntry entry;
+	private final Evaluator evaluator;
+
+	/** 0 for the main thread, helper threads are numbered from 1. */
+	private final int threadID;
+	private final int maxDepth;
+
+	private long nodes;
+	private int completedDepth;
+	private int bestMove;
+	private int bestScore;
+
+	/** Best move found by the last call to searchRoot, 0 if every move failed low or was excluded. */
+	private int rootMove;
+	/** Lines of the last completed iteration, best first. */
+	private ArrayList<Computer.SearchResult> lines;
+
+	/** Triangular principal variation table, row ply holds the best line found from that ply. */
+	private final int[][] pvTable;
+	private final int[] pvLength;
+
+	/**
+	 * Creates a new search thread.
+	 * @param computer The computer that owns the search, used to share the table and stop signal.
+	 * @param board The board to search, must not be shared with another thread.
+	 * @param evaluator The evaluator to use, must not be shared with another thread.
+	 * @param threadID 0 for the main thread, helper threads are numbered from 1.
+	 * @param maxDepth The depth to search to.
+	 */
+	public SearchThread(Computer computer, ChessBoard board, Evaluator evaluator, int threadID, int maxDepth) {
+		this.computer = computer;
+		this.board = board;
+		this.table = computer.table;
+		this.entry = new TTEntry();
+		this.evaluator = evaluator;
+		this.threadID = threadID;
+		this.maxDepth = maxDepth;
+
+		nodes = 0;
+		completedDepth = 0;
+		bestMove = 0;
+		bestScore = -INFINITY;
+		rootMove = 0;
+		lines = new ArrayList<Computer.SearchResult>();
+
+		pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+		pvLength = new int[MAX_PLY + 1];
+	}
+
+	@Override
+	public void run() {
+		iterativeDeepening();
+	}
+
+	/**
+	 * Searches the position one depth at a time until the max depth is reached or the search is stopped.
+	 * With multi-PV the main thread searches the root once per line at each depth, excluding the moves of the lines already found,
+	 * helper threads only search the best line.
+	 */
+	public void iterativeDeepening() {
+		final int lineCount = threadID == 0 ? computer.getMultiPV() : 1;
+		final int[] lineMoves = new int[lineCount];
+		final int[] lineScores = new int[lineCount];
+
+		int stability = 0;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			//Helper threads with odd IDs search one ply ahead of the main thread to fill the table with deeper results.
+			final int searchDepth = Math.min(maxDepth, depth + (threadID & 1));
+			final int previousBest = bestMove;
+			final ArrayList<Computer.SearchResult> depthLines = new ArrayList<Computer.SearchResult>(lineCount);
+
+			for (int line = 0; line < lineCount; line++) {
+				final int previousScore = lineMoves[line] != 0 ? lineScores[line] : -INFINITY;
+				final int score = aspirationSearch(searchDepth, previousScore, lineMoves[line], lineMoves, line);
+				if (computer.isStopped()) break;
+				if (rootMove == 0) break;		//Fewer legal moves than lines.
+
+				lineMoves[line] = rootMove;
+				lineScores[line] = score;
+
+				//Only the main thread's lines are reported.
+				if (threadID == 0) {
+					final Computer.SearchResult result = new Computer.SearchResult(rootMove, score, searchDepth, nodes, getPV(searchDepth), line + 1);
+					depthLines.add(result);
+					computer.report(result);
+				}
+			}
+			if (computer.isStopped()) break;
+
+			//The best move, its score and the lines are only replaced once every line of the depth is done, so a stop never mixes two depths.
+			if (lineMoves[0] != 0) {
+				bestMove = lineMoves[0];
+				bestScore = lineScores[0];
+			}
+			completedDepth = searchDepth;
+			lines = depthLines;
+
+			//The main thread decides when to stop, a best move that keeps changing earns more time.
+			if (threadID == 0) {
+				stability = bestMove == previousBest ? stability + 1 : 0;
+				if (computer.shouldStopIteration(stability)) break;
+			}
+		}
+	}
+
+	/**
+	 * Searches the root with a narrow window around the previous iteration's score, widening it on a fail high or fail low.
+	 * @param depth The depth to search to.
+	 * @param previousScore The score of the line at the previous depth, -INFINITY if there is none.
+	 * @param previousMove The move of the line at the previous depth, searched first.
+	 * @param excludedMoves Root moves of the lines already found at this depth.
+	 * @param excludedCount The number of excluded moves.
+	 * @return The exact score of the best move from the perspective of the side to move.
+	 */
+	private int aspirationSearch(int depth, int previousScore, int previousMove, int[] excludedMoves, int excludedCount) {
+		//Early iterations are too unstable and mate scores too far apart for a narrow window to pay off.
+		if (!computer.isPrincipalVariationSearch() || depth < ASPIRATION_MIN_DEPTH || Math.abs(previousScore) >= MATE_BOUND) {
+			return searchRoot(depth, -INFINITY, INFINITY, previousMove, excludedMoves, excludedCount);
+		}
+
+		int window = ASPIRATION_WINDOW;
+		int alpha = Math.max(previousScore - window, -INFINITY);
+		int beta = Math.min(previousScore + window, INFINITY);
+		while (true) {
+			final int score = searchRoot(depth, alpha, beta, previousMove, excludedMoves, excludedCount);
+			if (computer.isStopped()) return score;
+
+			window *= 2;
+			if (score <= alpha) alpha = Math.max(score - window, -INFINITY);
+			else if (score >= beta) beta = Math.min(score + window, INFINITY);
+			else return score;
+		}
+	}
+
+	/**
+	 * Searches every root move that isn't excluded and stores the best one in rootMove.
+	 * @param depth The depth to search to.
+	 * @param alpha The lower bound of the window.
+	 * @param beta The upper bound of the window.
+	 * @param previousMove The move to search first.
+	 * @param excludedMoves Root moves that are skipped.
+	 * @param excludedCount The number of excluded moves.
+	 * @return The score of the best move from the perspective of the side to move, a bound if it falls outside the window.
+	 */
+	private int searchRoot(int depth, int alpha, int beta, int previousMove, int[] excludedMoves, int excludedCount) {
+		pvLength[0] = 0;
+		rootMove = 0;
+		final int[] moves = generateMoves(false);
+		if (moves.length == 0) return board.isChecked(board.getTurn()) ? -MATE_SCORE : DRAW_SCORE;
+		orderMoves(moves, previousMove);
+
+		final int originalAlpha = alpha;
+		int bestScore = -INFINITY;
+		int searched = 0;
+		final BoardStorage store = board.copyData();
+		for (final int move : moves) {
+			if (isExcluded(move, excludedMoves, excludedCount)) continue;
+
+			final ChessPiece capturedPiece = makeMove(move);
+			final int score = searchChild(depth - 1, alpha, beta, 1, searched == 0);
+			undoMove(move, capturedPiece, store);
+			searched ++;
+
+			if (computer.isStopped()) {
+				//Stopped before the first iteration finished, any legal move is better than none.
+				if (bestMove == 0) bestMove = rootMove != 0 ? rootMove : moves[0];
+				return bestScore;
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				if (score > alpha) {
+					alpha = score;
+					rootMove = move;
+					updatePV(move, 0);
+				}
+			}
+			if (alpha >= beta) break;
+		}
+
+		//Scores with root moves excluded aren't the score of the position.
+		if (excludedCount == 0) {
+			final int flag = bestScore >= beta ? TTEntry.LOWER_BOUND : (bestScore > originalAlpha ? TTEntry.EXACT : TTEntry.UPPER_BOUND);
+			table.store(board.hash(), depth, toTableScore(bestScore, 0), flag, rootMove != 0 ? rootMove : bestMove);
+		}
+		return bestScore;
+	}
+
+	/**
+	 * Returns the line found by the last root search. Lines cut short by a table cutoff are extended with the table's best moves.
+	 * @param depth The depth of the search, the line is not extended beyond it.
+	 * @return The line as search moves, starting with the root move.
+	 */
+	private int[] getPV(int depth) {
+		final int[] line = new int[MAX_PLY];
+		final ChessPiece[] capturedPieces = new ChessPiece[MAX_PLY];
+		final BoardStorage[] stores = new BoardStorage[MAX_PLY];
+
+		int length = 0;
+		while (length < MAX_PLY) {
+			int move = 0;
+			if (length < pvLength[0]) move = pvTable[0][length];
+			else if (length < depth) {
+				if (table.probe(board.hash(), entry)) move = entry.bestMove;
+			}
+			//Table moves may come from another position with the same index, only legal moves are followed.
+			if (move == 0 || !isLegal(move)) break;
+
+			line[length] = move;
+			stores[length] = board.copyData();
+			capturedPieces[length] = makeMove(move);
+			length ++;
+		}
+
+		for (int i = length - 1; i >= 0; i--) {
+			undoMove(line[i], capturedPieces[i], stores[i]);
+		}
+		return Arrays.copyOf(line, length);
+	}
+
+	/**
+	 * Checks if a search move is legal in the current position.
+	 */
+	private boolean isLegal(int move) {
+		for (final int legalMove : generateMoves(false)) {
+			if (legalMove == move) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a root move belongs to a line that has already been found.
+	 */
+	private static boolean isExcluded(int move, int[] excludedMoves, int excludedCount) {
+		for (int i = 0; i < excludedCount; i++) {
+			if (excludedMoves[i] == move) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stores a move that raised alpha as the start of the line at its ply, followed by the line of the ply after it.
+	 * @param move The move that raised alpha.
+	 * @param ply The ply the move was made at.
+	 */
+	private void updatePV(int move, int ply) {
+		pvTable[ply][ply] = move;
+		for (int i = ply + 1; i < pvLength[ply + 1]; i++) {
+			pvTable[ply][i] = pvTable[ply + 1][i];
+		}
+		pvLength[ply] = pvLength[ply + 1];
+	}
+
+	/**
+	 * Searches the position after a move has been made.
+	 * With principal variation search only the first move gets the full window, the rest are searched with a null window
+	 * to prove they are no better and are re-searched with the full window if they are.
+	 * @param depth The remaining depth.
+	 * @param alpha The score the side that moved is already guaranteed.
+	 * @param beta The score the opponent is already guaranteed.
+	 * @param ply The distance from the root of the new position.
+	 * @param firstMove Whether or not this is the first move searched at the node.
+	 * @return The score of the move from the perspective of the side that moved.
+	 */
+	private int searchChild(int depth, int alpha, int beta, int ply, boolean firstMove) {
+		if (firstMove || !computer.isPrincipalVariationSearch()) return -negamax(depth, -beta, -alpha, ply);
+
+		final int score = -negamax(depth, -alpha - 1, -alpha, ply);
+		if (score > alpha && score < beta) return -negamax(depth, -beta, -alpha, ply);
+		return score;
+	}
+
+	/**
+	 * Negamax alpha-beta search.
+	 * @param depth The remaining depth.
+	 * @param alpha The score the side to move is already guaranteed.
+	 * @param beta The score the opponent is already guaranteed.
+	 * @param ply The distance from the root.
+	 * @return The score of the position from the perspective of the side to move.
+	 */
+	private int negamax(int depth, int alpha, int beta, int ply) {
+		pvLength[ply] = ply;
+		if (computer.isStopped()) return DRAW_SCORE;
+		if (board.halfMove >= HALF_MOVE_TIMER || board.isRepetition(1) || board.hasInsufficientMaterial() || Endgames.isKnownDraw(board)) return DRAW_SCORE;
+		if (depth <= 0 || ply >= MAX_PLY) return quiescence(alpha, beta, ply);
+		countNode();
+
+		//Probe the table for a cutoff or a move to search first.
+		final long key = board.hash();
+		int tableMove = 0;
+		if (table.probe(key, entry)) {
+			tableMove = entry.bestMove;
+			if (entry.depth >= depth) {
+				final int score = fromTableScore(entry.score, ply);
+				if (entry.flag == TTEntry.EXACT) return score;
+				if (entry.flag == TTEntry.LOWER_BOUND && score >= beta) return score;
+				if (entry.flag == TTEntry.UPPER_BOUND && score <= alpha) return score;
+			}
+		}
+
+		final int[] moves = generateMoves(false);
+		if (moves.length == 0) return board.isChecked(board.getTurn()) ? -MATE_SCORE + ply : DRAW_SCORE;
+		orderMoves(moves, tableMove);
+
+		final int originalAlpha = alpha;
+		int bestScore = -INFINITY;
+		int bestMove = 0;
+		final BoardStorage store = board.copyData();
+		for (int i = 0; i < moves.length; i++) {
+			final int move = moves[i];
+			final ChessPiece capturedPiece = makeMove(move);
+			final int score = searchChild(depth - 1, alpha, beta, ply + 1, i == 0);
+			undoMove(move, capturedPiece, store);
+
+			if (computer.isStopped()) return DRAW_SCORE;
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = move;
+			}
+			if (score > alpha) {
+				alpha = score;
+				updatePV(move, ply);
+			}
+			if (alpha >= beta) break;
+		}
+
+		final int flag = bestScore >= beta ? TTEntry.LOWER_BOUND : (bestScore > originalAlpha ? TTEntry.EXACT : TTEntry.UPPER_BOUND);
+		table.store(key, depth, toTableScore(bestScore, ply), flag, bestMove);
+		return bestScore;
+	}
+
+	/**
+	 * Searches captures until the position is quiet so the evaluation isn't taken in the middle of an exchange.
+	 * @param alpha The score the side to move is already guaranteed.
+	 * @param beta The score the opponent is already guaranteed.
+	 * @param ply The distance from the root.
+	 * @return The score of the position from the perspective of the side to move.
+	 */
+	private int quiescence(int alpha, int beta, int ply) {
+		pvLength[ply] = ply;
+		if (computer.isStopped()) return DRAW_SCORE;
+		if (ply >= MAX_PLY) return evaluate();
+		countNode();
+
+		final boolean inCheck = board.isChecked(board.getTurn());
+		if (!inCheck) {
+			//Only whether the stand pat is outside the window matters when it is.
+			final int standPat = computer.isLazyEvaluation() ? evaluator.evaluate(board, alpha, beta) : evaluate();
+			if (standPat >= beta) return standPat;
+			if (standPat > alpha) alpha = standPat;
+		}
+
+		//All moves are searched in check so mates aren't missed.
+		final int[] moves = generateMoves(!inCheck);
+		if (moves.length == 0 && inCheck) return -MATE_SCORE + ply;
+		orderMoves(moves, 0);
+
+		final BoardStorage store = board.copyData();
+		for (final int move : moves) {
+			final ChessPiece capturedPiece = makeMove(move);
+			final int score = -quiescence(-beta, -alpha, ply + 1);
+			undoMove(move, capturedPiece, store);
+
+			if (computer.isStopped()) return DRAW_SCORE;
+			if (score > alpha) alpha = score;
+			if (alpha >= beta) break;
+		}
+		return alpha;
+	}
+
+	/**
+	 * Counts a node and reports to the computer every {@link Chess.Constants.SearchConstants#NODE_CHECK_INTERVAL} nodes so the clock is read cheaply.
+	 */
+	private void countNode() {
+		nodes ++;
+		if ((nodes & (NODE_CHECK_INTERVAL - 1)) == 0) computer.checkLimits(NODE_CHECK_INTERVAL);
+	}
+
+	/**
+	 * Static evaluation of the position, the board's incremental score plus the thread's cached pawn structure.
+	 * @return The score of the position from the perspective of the side to move.
+	 */
+	private int evaluate() {
+		return evaluator.evaluate(board);
+	}
+
+	/**
+	 * Generates the legal moves of the side to move, a pawn reaching the last row is expanded into each promotion.
+	 * @param attacksOnly Whether or not captures only should be returned.
+	 * @return An array of search moves.
+	 */
+	private int[] generateMoves(boolean attacksOnly) {
+		final ArrayList<Move> moves = new ArrayList<Move>(MAX_MOVES[6]);
+		for (final ChessPiece piece : board.getPieces(board.getTurn())) {
+			piece.pieceMoves(moves, attacksOnly);
+		}
+
+		int size = 0;
+		final int[] searchMoves = new int[moves.size() * PROMOTION_PIECES.length];
+		for (final Move move : moves) {
+			if (board.getPiece(move.getStart()).isPawn() && getRow(move.getFinish()) == PROMOTION_ROW[board.getTurn().arrayIndex]) {
+				for (final PieceType type : PROMOTION_PIECES) {
+					searchMoves[size++] = toSearchMove(move, type);
+				}
+				continue;
+			}
+			searchMoves[size++] = move.getID();
+		}
+		return Arrays.copyOf(searchMoves, size);
+	}
+
+	/**
+	 * Sorts moves so the table move comes first, followed by captures ordered by most valuable victim, least valuable attacker.
+	 * @param moves The search moves to sort.
+	 * @param tableMove The move stored in the transposition table, 0 if there is none.
+	 */
+	private void orderMoves(int[] moves, int tableMove) {
+		final int[] scores = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			scores[i] = scoreMove(moves[i], tableMove);
+		}
+
+		//Insertion sort, move lists are short.
+		for (int i = 1; i < moves.length; i++) {
+			final int move = moves[i];
+			final int score = scores[i];
+			int j = i - 1;
+			while (j >= 0 && scores[j] < score) {
+				moves[j + 1] = moves[j];
+				scores[j + 1] = scores[j];
+				j--;
+			}
+			moves[j + 1] = move;
+			scores[j + 1] = score;
+		}
+	}
+
+	/**
+	 * Returns the ordering score of a move.
+	 * @param searchMove The move being scored.
+	 * @param tableMove The move stored in the transposition table.
+	 * @return A higher score for moves that should be searched first.
+	 */
+	private int scoreMove(int searchMove, int tableMove) {
+		if (searchMove == tableMove) return Integer.MAX_VALUE;
+
+		final Move move = new Move(searchMove & MOVE_MASK);
+		final PieceType promotion = getPromotion(searchMove);
+		int score = promotion == null ? 0 : PIECE_VALUES[promotion.arrayIndex];
+
+		final ChessPiece victim = board.getPiece(move.getFinish());
+		if (!victim.isEmpty()) {
+			final PieceType attacker = board.getPiece(move.getStart()).getType();
+			score += PIECE_VALUES[victim.getType().arrayIndex] * 10 - (attacker == PieceType.KING ? 0 : PIECE_VALUES[attacker.arrayIndex]) / 10;
+		}
+		return score;
+	}
+
+	/**
+	 * Makes a search move on the board, including the promotion.
+	 * @param searchMove The move to make.
+	 * @return The piece that was captured, empty if no piece was captured.
+	 */
+	private ChessPiece makeMove(int searchMove) {
+		final Move move = new Move(searchMove & MOVE_MASK);
+		final ChessPiece capturedPiece = board.isEnPassant(move) ? board.getPiece(board.getEnPassant()) : board.getPiece(move.getFinish());
+		board.makeMove(move);
+
+		final PieceType promotion = getPromotion(searchMove);
+		if (promotion != null) board.promote(promotion);
+		return capturedPiece;
+	}
+
+	/**
+	 * Undoes a search move on the board, including the promotion.
+	 * @param searchMove The move that was made.
+	 * @param capturedPiece The piece that was captured, empty if no piece was captured.
+	 * @param store Data that's lost when a move is made: halfmove, enPassant, and castling.
+	 */
+	private void undoMove(int searchMove, ChessPiece capturedPiece, BoardStorage store) {
+		final Move move = new Move(searchMove & MOVE_MASK);
+		if (getPromotion(searchMove) != null) board.unPromote(move.getFinish());
+		board.undoMove(move, capturedPiece, store);
+	}
+
+	/**
+	 * Converts a mate score from distance to the root to distance to the current position before storing it.
+	 */
+	private static int toTableScore(int score, int ply) {
+		if (score >= MATE_BOUND) return score + ply;
+		if (score <= -MATE_BOUND) return score - ply;
+		return score;
+	}
+
+	/**
+	 * Converts a stored mate score back into distance to the root.
+	 */
+	private static int fromTableScore(int score, int ply) {
+		if (score >= MATE_BOUND) return score - ply;
+		if (score <= -MATE_BOUND) return score + ply;
+		return score;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	public int getBestMove() {
+		return bestMove;
+	}
+
+	public int getBestScore() {
+		return bestScore;
+	}
+
+	public ArrayList<Computer.SearchResult> getLines() {
+		return lines;
+	}
+}
@@ -91,6 +91,8 @@ public class Tests {
 
 	public static final Test test26 = new Test(4, 232252, "3Q4/8/8/8/6q1/8/P4K2/k7 w - - 0 1");
 
+	public static final Test test27 = new Test(4, 32497, "4k2r/8/8/8/8/8/8/5K1R w k - 0 1");
+
 	public static void runTestsShallow(boolean verbose, boolean displayTimeStats) {
 		resetTimeStats();
 		long prevTime = System.currentTimeMillis();
@@ -133,6 +135,182 @@ public class Tests {
 		System.out.println("----------------------------------------");
 	}
 
+	/**
+	 * Searches every test position to the same depth with plain alpha-beta and with principal variation search, printing the nodes each needs.
+	 * @param depth The depth to search to.
+	 */
+	public static void compareSearch(int depth) {
+		System.out.println("----------------------------------------");
+		long alphaBetaNodes = 0;
+		long pvsNodes = 0;
+		long alphaBetaTime = 0;
+		long pvsTime = 0;
+		for (int i = 0; i < tests.size(); i++) {
+			final String fen = tests.get(i).fen;
+
+			//Fresh computers so neither search benefits from the other's table.
+			final Computer alphaBeta = new ChessBoard(fen).getComputer();
+			alphaBeta.setPrincipalVariationSearch(false);
+			long prevTime = System.currentTimeMillis();
+			final Computer.SearchResult alphaBetaResult = alphaBeta.search(depth);
+			alphaBetaTime += System.currentTimeMillis() - prevTime;
+
+			final Computer pvs = new ChessBoard(fen).getComputer();
+			prevTime = System.currentTimeMillis();
+			final Computer.SearchResult pvsResult = pvs.search(depth);
+			pvsTime += System.currentTimeMillis() - prevTime;
+
+			alphaBetaNodes += alphaBetaResult.nodes;
+			pvsNodes += pvsResult.nodes;
+			System.out.println("Test " + (i + 1) + ": Alpha-Beta: " + alphaBetaResult.nodes + ", PVS: " + pvsResult.nodes
+				+ (alphaBetaResult.score != pvsResult.score ? " SCORE MISMATCH" : ""));
+		}
+		System.out.println("Alpha-Beta Nodes: " + alphaBetaNodes + ", Time: " + alphaBetaTime);
+		System.out.println("PVS Nodes: " + pvsNodes + ", Time: " + pvsTime);
+		System.out.println("Node Reduction: " + (100 - pvsNodes * 100 / Math.max(1, alphaBetaNodes)) + "%");
+		System.out.println("----------------------------------------");
+	}
+
+	/**
+	 * Searches each test position and reports how often the main thread's evaluation cache and pawn table were hit.
+	 * @param depth The depth to search to.
+	 */
+	public static void evaluationCacheReport(int depth) {
+		System.out.println("----------------------------------------");
+		long evalProbes = 0;
+		long evalHits = 0;
+		long pawnProbes = 0;
+		long pawnHits = 0;
+		for (int i = 0; i < tests.size(); i++) {
+			final Computer computer = new ChessBoard(tests.get(i).fen).getComputer();
+			computer.search(depth);
+
+			final EvalCache evalCache = computer.getEvaluator(0).getEvalCache();
+			final PawnHashTable pawnTable = computer.getEvaluator(0).getPawnTable();
+			evalProbes += evalCache.getProbes();
+			evalHits += evalCache.getHits();
+			pawnProbes += pawnTable.getProbes();
+			pawnHits += pawnTable.getHits();
+			System.out.println("Test " + (i + 1) + ": Eval Cache: " + percent(evalCache.getHitRate()) + ", Pawn Table: " + percent(pawnTable.getHitRate()));
+		}
+		System.out.println("Eval Cache Probes: " + evalProbes + ", Hit Rate: " + percent((double) evalHits / Math.max(1, evalProbes)));
+		System.out.println("Pawn Table Probes: " + pawnProbes + ", Hit Rate: " + percent((double) pawnHits / Math.max(1, pawnProbes)));
+		System.out.println("----------------------------------------");
+	}
+
+	/**
+	 * Searches each test position with and without lazy evaluation and reports how often the lazy evaluation exited early,
+	 * and how often a full evaluation was further than the margin from the material score, a lazy exit there could have been wrong.
+	 * @param depth The depth to search to.
+	 */
+	public static void lazyEvaluationReport(int depth) {
+		System.out.println("----------------------------------------");
+		long lazyProbes = 0;
+		long lazyExits = 0;
+		long fullEvaluations = 0;
+		long marginExceeded = 0;
+		long fullTime = 0;
+		long lazyTime = 0;
+		for (int i = 0; i < tests.size(); i++) {
+			final String fen = tests.get(i).fen;
+
+			final Computer full = new ChessBoard(fen).getComputer();
+			full.setLazyEvaluation(false);
+			long prevTime = System.currentTimeMillis();
+			final Computer.SearchResult fullResult = full.search(depth);
+			fullTime += System.currentTimeMillis() - prevTime;
+
+			final Computer lazy = new ChessBoard(fen).getComputer();
+			prevTime = System.currentTimeMillis();
+			final Computer.SearchResult lazyResult = lazy.search(depth);
+			lazyTime += System.currentTimeMillis() - prevTime;
+
+			final Evaluator evaluator = lazy.getEvaluator(0);
+			final Evaluator fullEvaluator = full.getEvaluator(0);
+			lazyProbes += evaluator.getLazyProbes();
+			lazyExits += evaluator.getLazyExits();
+			fullEvaluations += fullEvaluator.getEvalCache().getProbes() - fullEvaluator.getEvalCache().getHits();
+			marginExceeded += fullEvaluator.getMarginExceeded();
+			System.out.println("Test " + (i + 1) + ": Early Exits: " + percent((double) evaluator.getLazyExits() / Math.max(1, evaluator.getLazyProbes()))
+				+ ", Nodes: " + fullResult.nodes + " -> " + lazyResult.nodes + (fullResult.bestMove != lazyResult.bestMove ? " MOVE MISMATCH" : ""));
+		}
+		System.out.println("Lazy Evaluations: " + lazyProbes + ", Early Exits: " + percent((double) lazyExits / Math.max(1, lazyProbes)));
+		System.out.println("Full Evaluations Outside " + Constants.EvaluateConstants.LAZY_EVAL_MARGIN + ": " + percent((double) marginExceeded / Math.max(1, fullEvaluations)));
+		System.out.println("Full Time: " + fullTime + ", Lazy Time: " + lazyTime);
+		System.out.println("----------------------------------------");
+	}
+
+	/**
+	 * Searches each test position with a fresh table of the given size and reports how the transposition table behaved,
+	 * a high collision count or a fill rate near 1000 means the searches would benefit from a larger table.
+	 * @param depth The depth to search to.
+	 * @param megabytes The size of the table in megabytes.
+	 */
+	public static void transpositionTableReport(int depth, int megabytes) {
+		System.out.println("----------------------------------------");
+		long probes = 0;
+		long hits = 0;
+		long collisions = 0;
+		long stores = 0;
+		final long[] replacements = new long[TranspositionTable.REPLACE_REASONS.length];
+		for (int i = 0; i < tests.size(); i++) {
+			final Computer computer = new ChessBoard(tests.get(i).fen).getComputer();
+			computer.setTableSize(megabytes);
+			computer.search(depth);
+
+			final TranspositionTable table = computer.table;
+			probes += table.getProbes();
+			hits += table.getHits();
+			collisions += table.getCollisions();
+			stores += table.getStores();
+			for (int reason = 0; reason < replacements.length; reason++) {
+				replacements[reason] += table.getReplacements(reason);
+			}
+			System.out.println("Test " + (i + 1) + ": Hit Rate: " + percent(table.getHitRate()) + ", Collisions: " + table.getCollisions()
+				+ ", Hashfull: " + table.hashfull());
+		}
+		System.out.println("Probes: " + probes + ", Hit Rate: " + percent((double) hits / Math.max(1, probes))
+			+ ", Collisions: " + percent((double) collisions / Math.max(1, probes)));
+		String line = "Stores: " + stores;
+		for (int reason = 0; reason < replacements.length; reason++) {
+			line += ", " + TranspositionTable.REPLACE_REASONS[reason] + ": " + percent((double) replacements[reason] / Math.max(1, stores));
+		}
+		System.out.println(line);
+		System.out.println("----------------------------------------");
+	}
+
+	private static String percent(double rate) {
+		return Math.round(rate * 1000) / 10.0 + "%";
+	}
+
+	/**
+	 * Checks the passed pawn detection on positions with a known answer, pawns blocking each other and pawns that have passed each other among them.
+	 * Each case is a FEN, a pawn's square and whether it's passed.
+	 */
+	public static void passedPawnReport() {
+		System.out.println("----------------------------------------");
+		final String[][] cases = {
+			{"4k3/8/8/4p3/4P3/8/8/4K3 w - - 0 1", "e4", "false"},		//Blocked by each other.
+			{"4k3/8/8/4p3/4P3/8/8/4K3 w - - 0 1", "e5", "false"},
+			{"4k3/8/8/8/4P3/4p3/8/4K3 w - - 0 1", "e4", "true"},		//Past each other.
+			{"4k3/8/8/8/4P3/4p3/8/4K3 w - - 0 1", "e3", "true"},
+			{"4k3/8/3p4/8/4P3/8/8/4K3 w - - 0 1", "e4", "false"},		//Guarded by a pawn on an adjacent file.
+			{"4k3/8/3p4/8/4P3/8/8/4K3 w - - 0 1", "d6", "false"},
+			{"4k3/8/8/8/8/8/P3p3/4K3 w - - 0 1", "a2", "true"},
+			{"4k3/8/8/4P3/4P3/8/8/4K3 w - - 0 1", "e4", "false"},		//Only the front pawn of a file.
+		};
+		final Evaluator evaluator = new Evaluator();
+		int failed = 0;
+		for (final String[] test : cases) {
+			final boolean passed = evaluator.isPassedPawn(new ChessBoard(test[0]), BoardUtil.squareToIndex(test[1]));
+			if (passed == Boolean.parseBoolean(test[2])) continue;
+			failed ++;
+			System.out.println(test[0] + " " + test[1] + ": Expected " + test[2] + ", Got " + passed);
+		}
+		System.out.println(failed == 0 ? "ALL PASSED PAWN TESTS PASSED!" : failed + " passed pawn tests failed.");
+		System.out.println("----------------------------------------");
+	}
+
 	public static long timeMoveGen = 0;
 	public static long timePawnGen = 0;
 	public static long timeKnightGen = 0;
@@ -0,0 +1,100 @@
+package Chess;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static Chess.Constants.SearchConstants.*;
+
+/**
+ * Class that turns search limits into deadlines and decides when a search should stop.
+ * The soft limit is checked between iterations, the hard limit and node limit are checked every {@link Chess.Constants.SearchConstants#NODE_CHECK_INTERVAL} nodes.
+ */
+public class TimeManager {
+
+	private volatile long startTime;
+	private volatile boolean pondering;
+	private final long softLimit;
+	private final long hardLimit;
+	private final long nodeLimit;
+
+	/** Nodes searched by all threads, threads add their count in batches so the counter is rarely contended. */
+	private final AtomicLong nodes;
+
+	/**
+	 * Creates a new time manager.
+	 * @param limits The limits of the search.
+	 * @param pondering Whether or not the search is pondering, if so no limit applies until {@link TimeManager#ponderHit()}, otherwise the clock starts immediately.
+	 */
+	public TimeManager(SearchLimits limits, boolean pondering) {
+		startTime = System.nanoTime();
+		this.pondering = pondering;
+		nodeLimit = limits.getNodes();
+		nodes = new AtomicLong();
+
+		//Fixed move time, the whole budget may be used.
+		if (limits.getMoveTime() > 0) {
+			softLimit = Math.max(1, limits.getMoveTime() - MOVE_OVERHEAD);
+			hardLimit = softLimit;
+		}
+		//Spread the clock over the remaining moves, a single move may use several times its share but never the whole clock.
+		else if (limits.getTime() > 0) {
+			final int movesToGo = limits.getMovesToGo() > 0 ? Math.min(limits.getMovesToGo(), MAX_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+			final long available = Math.max(1, limits.getTime() - MOVE_OVERHEAD);
+			final long target = available / movesToGo + limits.getIncrement() * 3 / 4;
+			hardLimit = Math.max(1, Math.min(target * HARD_LIMIT_FACTOR, available / 2));
+			softLimit = Math.max(1, Math.min(target, hardLimit));
+		}
+		else {
+			softLimit = 0;
+			hardLimit = 0;
+		}
+	}
+
+	/**
+	 * Adds a batch of searched nodes and checks the hard limits.
+	 * @param batch The number of nodes searched since the last check.
+	 * @return True if the search must stop immediately, false otherwise.
+	 */
+	public boolean checkLimits(long batch) {
+		final long total = nodes.addAndGet(batch);
+		if (pondering) return false;
+		if (nodeLimit > 0 && total >= nodeLimit) return true;
+		return hardLimit > 0 && elapsed() >= hardLimit;
+	}
+
+	/**
+	 * Decides whether or not another iteration should be started.
+	 * The soft limit shrinks the longer the best move has stayed the same, an unstable best move gets the full budget.
+	 * @param stability The number of consecutive iterations the best move has not changed.
+	 * @return True if the search should stop, false otherwise.
+	 */
+	public boolean shouldStopIteration(int stability) {
+		if (pondering || softLimit == 0) return false;
+		final long scaledLimit = softLimit * (10 - Math.min(stability, 5)) / 10;
+		return elapsed() >= scaledLimit;
+	}
+
+	/**
+	 * Turns a ponder search into a normal search, the clock and node count start over from now.
+	 */
+	public void ponderHit() {
+		nodes.set(0);
+		startTime = System.nanoTime();
+		pondering = false;
+	}
+
+	/**
+	 * Returns the time passed since the search started.
+	 * @return The elapsed time in milliseconds.
+	 */
+	public long elapsed() {
+		return (System.nanoTime() - startTime) / 1_000_000;
+	}
+
+	public long getSoftLimit() {
+		return softLimit;
+	}
+
+	public long getHardLimit() {
+		return hardLimit;
+	}
+}
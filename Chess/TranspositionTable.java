@@ -1,64 +1,438 @@
 package Chess;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
 public class TranspositionTable {
-    public class TTEntry {
+    /**
+     * A decoded table entry, filled in by {@link TranspositionTable#probe(long, TTEntry)}.
+     * Every searcher keeps its own entry so probing never allocates.
+     */
+    public static class TTEntry {
         public long key;
         public int depth;
         public int score;
         public int flag;
         public int bestMove;
+        public int generation;
 
         public static final int EXACT = 0;
         public static final int LOWER_BOUND = 1;
         public static final int UPPER_BOUND = 2;
+    }
+
+    // Entries are grouped into buckets of one cache line: the first slot of a bucket keeps the
+    // deepest result, the other slots always take new results.
+    public static final int BUCKET_SIZE = 4;
+    public static final int MAX_SIZE_MB = 8192;
+
+    // Every entry is two longs, the key xored with the data followed by the data. Threads share the
+    // table without locks: an entry torn by two racing writes no longer decodes to its key and misses.
+    private static final int LONGS_PER_ENTRY = 2;
+    private static final int LONGS_PER_BUCKET = BUCKET_SIZE * LONGS_PER_ENTRY;
+    private static final int BYTES_PER_BUCKET = LONGS_PER_BUCKET * Long.BYTES;
+
+    // Data layout: score in bits 0-31, best move in 32-47, depth in 48-55, flag in 56-57, generation in 58-63.
+    private static final int MOVE_SHIFT = 32;
+    private static final int DEPTH_SHIFT = 48;
+    private static final int FLAG_SHIFT = 56;
+    private static final int GENERATION_SHIFT = 58;
+    private static final long MOVE_MASK = 0xFFFF;
+    private static final long DEPTH_MASK = 0xFF;
+    private static final long FLAG_MASK = 0x3;
+    private static final int GENERATION_MASK = 0x3F;
+
+    // How many plies of depth one search of age is worth when choosing which entry to replace.
+    private static final int AGE_WEIGHT = 8;
+    // Longs cleared by a single fork/join task.
+    private static final int CLEAR_CHUNK_SIZE = 1 << 20;
+
+    // Why a store wrote where it did, or didn't write at all.
+    public static final int REPLACE_EMPTY = 0;      // An empty slot was filled.
+    public static final int REPLACE_UPDATE = 1;     // The same position was overwritten.
+    public static final int REPLACE_KEPT = 2;       // The same position was kept, it held a deeper result of this search.
+    public static final int REPLACE_STALE = 3;      // An entry from an earlier search was replaced.
+    public static final int REPLACE_DEPTH = 4;      // The depth-preferred slot was replaced by a deeper result.
+    public static final int REPLACE_ALWAYS = 5;     // A current entry in an always-replace slot was replaced.
+    public static final String[] REPLACE_REASONS = {"Empty", "Update", "Kept", "Stale", "Depth", "Always"};
+
+    // Entries sampled for the fill rate, the first thousand as in the UCI hashfull.
+    private static final int HASHFULL_SAMPLE = 1000;
+
+    // Saved tables start with magic, version, Zobrist seed, bucket count and generation, followed by the
+    // table itself in little endian. Files are mapped in chunks as one mapping can't exceed 2 GB.
+    private static final int FILE_MAGIC = 0x54544142; // "TTAB"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final long MAP_CHUNK_BYTES = 1L << 30;
+
+    // Opaque accesses keep every long whole, plain long accesses may be split in two.
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
 
-        public void set(long key, int depth, int score, int flag, int bestMove) {
-            this.key = key;
-            this.depth = depth;
-            this.score = score;
-            this.flag = flag;
-            this.bestMove = bestMove;
+    private long[] table;
+    private int bucketMask;
+    private int generation;
+
+    // Adders spread concurrent increments over per-thread cells, so searchers never contend on one counter.
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder[] replacements = new LongAdder[REPLACE_REASONS.length];
+
+    /**
+     * Creates a table using at most the given amount of memory, rounded down to a power of two buckets.
+     * @param megabytes The size of the table in megabytes.
+     */
+    public TranspositionTable(int megabytes) {
+        for (int i = 0; i < replacements.length; i++) {
+            replacements[i] = new LongAdder();
         }
+        // Only private helpers, a subclass overriding resize would run before its own fields are set.
+        allocate(bucketCount(megabytes));
     }
 
-    private final TTEntry[] table;
-    private final int sizeMask;
+    /**
+     * Reallocates the table with a new size, everything stored is lost. Must not be called during a search.
+     * @param megabytes The size of the table in megabytes.
+     */
+    public void resize(int megabytes) {
+        allocate(bucketCount(megabytes));
+        resetStats();
+    }
 
-    public TranspositionTable(int sizePowerOf2) {
-        int size = 1 << sizePowerOf2; // e.g. 2^20 = 1M entries
-        table = new TTEntry[size];
-        sizeMask = size - 1;
-        for (int i = 0; i < size; i++) {
-            table[i] = new TTEntry();
-        }
+    private static int bucketCount(int megabytes) {
+        if (megabytes < 1 || megabytes > MAX_SIZE_MB) throw new IllegalArgumentException("Invalid table size");
+        return Integer.highestOneBit((int) ((long) megabytes * 1024 * 1024 / BYTES_PER_BUCKET));
+    }
+
+    private void allocate(int buckets) {
+        table = null; // Lets the old table be collected before the new one is allocated.
+        table = new long[buckets * LONGS_PER_BUCKET];
+        bucketMask = buckets - 1;
+        generation = 0;
+    }
+
+    /**
+     * Returns the size of the table in megabytes.
+     * @return The size of the table in megabytes.
+     */
+    public int sizeMB() {
+        return (int) ((long) table.length * Long.BYTES / (1024 * 1024));
+    }
+
+    /**
+     * Starts a new search generation, entries from earlier searches become the first to be replaced.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    private int bucket(long key) {
+        return ((int)(key) & bucketMask) * LONGS_PER_BUCKET;
+    }
+
+    private static long pack(int depth, int score, int flag, int bestMove, int generation) {
+        return (score & 0xFFFFFFFFL)
+            | ((bestMove & MOVE_MASK) << MOVE_SHIFT)
+            | ((depth & DEPTH_MASK) << DEPTH_SHIFT)
+            | ((flag & FLAG_MASK) << FLAG_SHIFT)
+            | ((long) generation << GENERATION_SHIFT);
+    }
+
+    private static int depth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & DEPTH_MASK);
+    }
+
+    private static int bestMove(long data) {
+        return (int) ((data >>> MOVE_SHIFT) & MOVE_MASK);
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT);
+    }
+
+    private int age(long data) {
+        return (generation - generation(data)) & GENERATION_MASK;
+    }
+
+    private int replaceValue(long data) {
+        return depth(data) - AGE_WEIGHT * age(data);
+    }
+
+    private static boolean isEmpty(long storedKey, long data) {
+        return storedKey == 0 && data == 0;
+    }
+
+    private int replaceReason(long storedKey, long data, int current) {
+        if (isEmpty(storedKey, data)) return REPLACE_EMPTY;
+        return age(data) != 0 ? REPLACE_STALE : current;
+    }
+
+    private static long read(long[] table, int index) {
+        return (long) SLOTS.getOpaque(table, index);
     }
 
-    private int index(long key) {
-        return (int)(key) & sizeMask;
+    private static void write(long[] table, int index, long value) {
+        SLOTS.setOpaque(table, index, value);
     }
 
-    public TTEntry lookup(long key) {
-        TTEntry entry = table[index(key)];
-        if (entry.key == key) {
-            return entry;
+    private static void write(long[] table, int index, long key, long data) {
+        write(table, index + 1, data);
+        write(table, index, key ^ data);
+    }
+
+    /**
+     * Looks up a position and decodes its entry.
+     * @param key The hash of the position.
+     * @param entry The entry to fill in.
+     * @return True if the position was found, false otherwise.
+     */
+    public boolean probe(long key, TTEntry entry) {
+        long[] table = this.table;
+        int start = bucket(key);
+        boolean occupied = false;
+        probes.increment();
+        for (int i = start; i < start + LONGS_PER_BUCKET; i += LONGS_PER_ENTRY) {
+            long data = read(table, i + 1);
+            long storedKey = read(table, i);
+            // Half of another thread's write leaves the key and data out of step and misses.
+            if ((storedKey ^ data) == key) {
+                hits.increment();
+                // A hit keeps the entry alive for the current search.
+                if (generation(data) != generation) {
+                    data = (data & ~((long) GENERATION_MASK << GENERATION_SHIFT)) | ((long) generation << GENERATION_SHIFT);
+                    write(table, i, key, data);
+                }
+                entry.key = key;
+                entry.score = (int) data;
+                entry.bestMove = bestMove(data);
+                entry.depth = depth(data);
+                entry.flag = (int) ((data >>> FLAG_SHIFT) & FLAG_MASK);
+                entry.generation = generation;
+                return true;
+            }
+            occupied |= !isEmpty(storedKey, data);
         }
-        return null;
+        // Other positions share the bucket, the position may have been pushed out by them.
+        if (occupied) collisions.increment();
+        return false;
     }
 
     public void store(long key, int depth, int score, int flag, int bestMove) {
-        int idx = index(key);
-        TTEntry entry = table[idx];
+        long[] table = this.table;
+        int start = bucket(key);
+        stores.increment();
+
+        // The same position is overwritten unless a deeper result of this search would be lost.
+        for (int i = start; i < start + LONGS_PER_BUCKET; i += LONGS_PER_ENTRY) {
+            long data = read(table, i + 1);
+            if ((read(table, i) ^ data) == key) {
+                if (depth >= depth(data) || flag == TTEntry.EXACT || age(data) != 0) {
+                    if (bestMove == 0) bestMove = bestMove(data);
+                    write(table, i, key, pack(depth, score, flag, bestMove, generation));
+                    replacements[REPLACE_UPDATE].increment();
+                }
+                else {
+                    replacements[REPLACE_KEPT].increment();
+                }
+                return;
+            }
+        }
+
+        // The always-replace slot given up is the oldest and shallowest one.
+        int victim = start + LONGS_PER_ENTRY;
+        int victimValue = replaceValue(read(table, victim + 1));
+        for (int i = victim + LONGS_PER_ENTRY; i < start + LONGS_PER_BUCKET; i += LONGS_PER_ENTRY) {
+            int value = replaceValue(read(table, i + 1));
+            if (value < victimValue) {
+                victim = i;
+                victimValue = value;
+            }
+        }
+
+        // The depth-preferred slot only gives way to deeper results or once it is stale,
+        // a current entry it loses moves down into the always-replace slots.
+        long preferred = read(table, start + 1);
+        long preferredKey = read(table, start);
+        int reason;
+        if (depth >= depth(preferred) || age(preferred) != 0) {
+            reason = replaceReason(preferredKey, preferred, REPLACE_DEPTH);
+            if (reason == REPLACE_DEPTH) {
+                // Copied as stored, a torn pair stays torn and is never found.
+                write(table, victim + 1, preferred);
+                write(table, victim, preferredKey);
+            }
+            victim = start;
+        }
+        else {
+            reason = replaceReason(read(table, victim), read(table, victim + 1), REPLACE_ALWAYS);
+        }
+        replacements[reason].increment();
+        write(table, victim, key, pack(depth, score, flag, bestMove, generation));
+    }
+
+    /**
+     * Returns how many entries in a thousand hold a result of the current search, sampled from the start of the table.
+     * @return The fill rate in permille.
+     */
+    public int hashfull() {
+        long[] table = this.table;
+        int sample = Math.min(HASHFULL_SAMPLE, table.length / LONGS_PER_ENTRY);
+        int used = 0;
+        for (int i = 0; i < sample * LONGS_PER_ENTRY; i += LONGS_PER_ENTRY) {
+            long data = read(table, i + 1);
+            if (!isEmpty(read(table, i), data) && age(data) == 0) used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of probes that missed although other positions were stored in their bucket.
+     * @return The number of colliding probes.
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Returns the number of stores that ended for the given reason.
+     * @param reason One of the REPLACE constants.
+     * @return The number of stores.
+     */
+    public long getReplacements(int reason) {
+        return replacements[reason].sum();
+    }
+
+    /**
+     * Returns the fraction of probes that found their key.
+     * @return A value from 0 to 1.
+     */
+    public double getHitRate() {
+        long probeCount = probes.sum();
+        return probeCount == 0 ? 0 : (double) hits.sum() / probeCount;
+    }
+
+    public void resetStats() {
+        probes.reset();
+        hits.reset();
+        collisions.reset();
+        stores.reset();
+        for (LongAdder replacement : replacements) {
+            replacement.reset();
+        }
+    }
+
+    /**
+     * Saves the table so a later process can continue from it with {@link TranspositionTable#load(Path)}.
+     * Must not be called during a search.
+     * @param path The path of the file, replaced if it exists.
+     * @throws IOException If the file can't be written.
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(ZobristHashing.SEED)
+                .putInt(bucketMask + 1).putInt(generation);
+
+            long bytes = (long) table.length * Long.BYTES;
+            for (long offset = 0; offset < bytes; offset += MAP_CHUNK_BYTES) {
+                long length = Math.min(MAP_CHUNK_BYTES, bytes - offset);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + offset, length);
+                chunk.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(table, (int) (offset / Long.BYTES), (int) (length / Long.BYTES));
+            }
+        }
+    }
+
+    /**
+     * Replaces the table with one saved by {@link TranspositionTable#save(Path)}, the table takes the size of the saved one.
+     * Must not be called during a search.
+     * @param path The path of the file.
+     * @throws IOException If the file can't be read, isn't a table or was saved with different Zobrist keys.
+     */
+    public void load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Not a table file: " + path);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) throw new IOException("Not a table file: " + path);
+            if (header.getLong() != ZobristHashing.SEED) throw new IOException("Table saved with different Zobrist keys: " + path);
 
-        // Replace if slot is empty or the new entry is deeper
-        if (entry.key != key || depth >= entry.depth) {
-            entry.set(key, depth, score, flag, bestMove);
+            int buckets = header.getInt();
+            int savedGeneration = header.getInt();
+            long bytes = (long) buckets * BYTES_PER_BUCKET;
+            if (buckets < 1 || Integer.bitCount(buckets) != 1 || bytes > (long) MAX_SIZE_MB * 1024 * 1024
+                    || channel.size() != HEADER_BYTES + bytes || (savedGeneration & ~GENERATION_MASK) != 0) {
+                throw new IOException("Corrupt table file: " + path);
+            }
+
+            if (buckets != bucketMask + 1) {
+                allocate(buckets);
+                resetStats();
+            }
+            for (long offset = 0; offset < bytes; offset += MAP_CHUNK_BYTES) {
+                long length = Math.min(MAP_CHUNK_BYTES, bytes - offset);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + offset, length);
+                chunk.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(table, (int) (offset / Long.BYTES), (int) (length / Long.BYTES));
+            }
+            generation = savedGeneration;
         }
     }
 
+    /**
+     * Empties the table, large tables are cleared in parallel.
+     */
     public void clear() {
-        for (TTEntry entry : table) {
-            entry.key = 0;
-            entry.depth = 0;
+        ForkJoinPool.commonPool().invoke(new ClearTask(table, 0, table.length));
+        generation = 0;
+        resetStats();
+    }
+
+    private static class ClearTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] table;
+        private final int from;
+        private final int to;
+
+        ClearTask(long[] table, int from, int to) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CLEAR_CHUNK_SIZE) {
+                Arrays.fill(table, from, to, 0L);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ClearTask(table, from, middle), new ClearTask(table, middle, to));
         }
     }
 }
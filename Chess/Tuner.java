@@ -0,0 +1,589 @@
+package Chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import Chess.Constants.PieceConstants.PieceType;
+
+import static Chess.Constants.EvaluateConstants.*;
+import static Chess.Constants.PieceConstants.*;
+import static Chess.Constants.SearchConstants.*;
+import static Chess.Constants.TuningConstants.*;
+
+/**
+ * Class that tunes the handcrafted evaluation weights on positions labelled with their game result, minimizing the squared error
+ * between the result and the score mapped through a sigmoid (Texel's method).
+ * <p>
+ * Each position is resolved to a quiet one with a quiescence search once, when loading. The evaluation of the quiet position is linear
+ * in the weights, so it's stored as how many times each weight counts, packed into primitive arrays. The error and its gradient
+ * are then computed from those counts in parallel with fork/join, without touching a board again.
+ * <p>
+ * Each line of the data file holds a FEN followed by the result from white's perspective: 1-0, 0-1, 1/2-1/2, 1.0, 0.0 or 0.5,
+ * optionally in quotes, brackets or followed by a semicolon.
+ * <p>
+ * The evaluation constants are only read, tuned weights are printed or saved to be copied into {@link Constants.EvaluateConstants}.
+ */
+public class Tuner {
+
+	/** The constant arrays holding the weights, the names are used when printing. */
+	private final ArrayList<int[]> arrays;
+	private final ArrayList<String> names;
+	/** Index of the first weight of each array in the weight vector. */
+	private final IdentityHashMap<int[], Integer> firstWeight;
+
+	/** The weight vector being tuned. */
+	private final double[] weights;
+	private final int weightCount;
+
+	/** The positions, the weight counts of position p are from offsets[p] to offsets[p + 1]. */
+	private int positionCount;
+	private int[] offsets;
+	private int[] featureWeights;
+	/** Middlegame count in the high 16 bits, endgame count in the low 16 bits. */
+	private int[] featureCounts;
+	private byte[] phases;
+	/** 0 for a white loss, 1 for a draw, 2 for a white win. */
+	private byte[] results;
+
+	private final ForkJoinPool pool;
+	private double k;
+
+	/**
+	 * Loads the positions of a data file using every core.
+	 * @param path The path of the data file.
+	 * @throws IOException If the file can't be read.
+	 */
+	public Tuner(Path path) throws IOException {
+		this(path, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Loads the positions of a data file.
+	 * @param path The path of the data file.
+	 * @param threads The number of threads used to load and tune.
+	 * @throws IOException If the file can't be read.
+	 */
+	public Tuner(Path path, int threads) throws IOException {
+		if (threads < 1) throw new IllegalArgumentException("Invalid thread count");
+		pool = new ForkJoinPool(threads);
+		arrays = new ArrayList<int[]>();
+		names = new ArrayList<String>();
+		firstWeight = new IdentityHashMap<int[], Integer>();
+
+		register("PIECE_VALUES", PIECE_VALUES);
+		register("ENDGAME_PIECE_VALUES", ENDGAME_PIECE_VALUES);
+		for (final PieceType type : PIECE_TYPES) {
+			register("PIECE_SQUARE_TABLES[" + type + "]", PIECE_SQUARE_TABLES[type.arrayIndex]);
+			register("ENDGAME_PIECE_SQUARE_TABLES[" + type + "]", ENDGAME_PIECE_SQUARE_TABLES[type.arrayIndex]);
+		}
+		register("DOUBLED_PAWN", DOUBLED_PAWN);
+		register("ISOLATED_PAWN", ISOLATED_PAWN);
+		register("BACKWARD_PAWN", BACKWARD_PAWN);
+		for (int rank = 0; rank < PASSED_PAWN.length; rank++) register("PASSED_PAWN[" + rank + "]", PASSED_PAWN[rank]);
+		for (int distance = 0; distance < PAWN_SHIELD.length; distance++) register("PAWN_SHIELD[" + distance + "]", PAWN_SHIELD[distance]);
+		for (final PieceType type : PIECE_TYPES) register("MOBILITY_WEIGHTS[" + type + "]", MOBILITY_WEIGHTS[type.arrayIndex]);
+		register("KING_DANGER", KING_DANGER);
+
+		int count = 0;
+		for (final int[] array : arrays) count += array.length;
+		weightCount = count;
+		weights = new double[weightCount];
+		for (final int[] array : arrays) {
+			for (int i = 0; i < array.length; i++) weights[firstWeight.get(array) + i] = array[i];
+		}
+
+		load(path);
+		k = 0;
+	}
+
+	/**
+	 * Adds a constant array to the weight vector, arrays shared between tables are only added once.
+	 */
+	private void register(String name, int[] array) {
+		if (firstWeight.containsKey(array)) return;
+		int first = 0;
+		for (final int[] registered : arrays) first += registered.length;
+		firstWeight.put(array, first);
+		arrays.add(array);
+		names.add(name);
+	}
+
+	/**
+	 * Streams the data file in batches of one chunk of lines per thread, so only a batch is held as text.
+	 * @param path The path of the data file.
+	 */
+	private void load(Path path) throws IOException {
+		positionCount = 0;
+		offsets = new int[TUNING_CHUNK_SIZE + 1];
+		featureWeights = new int[TUNING_CHUNK_SIZE * 16];
+		featureCounts = new int[TUNING_CHUNK_SIZE * 16];
+		phases = new byte[TUNING_CHUNK_SIZE];
+		results = new byte[TUNING_CHUNK_SIZE];
+
+		final int batchSize = TUNING_CHUNK_SIZE * pool.getParallelism();
+		final ArrayList<String> batch = new ArrayList<String>(batchSize);
+		try (BufferedReader reader = Files.newBufferedReader(path)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				batch.add(line);
+				if (batch.size() < batchSize) continue;
+				loadBatch(batch);
+				batch.clear();
+			}
+		}
+		loadBatch(batch);
+
+		final int featureCount = offsets[positionCount];
+		offsets = Arrays.copyOf(offsets, positionCount + 1);
+		featureWeights = Arrays.copyOf(featureWeights, featureCount);
+		featureCounts = Arrays.copyOf(featureCounts, featureCount);
+		phases = Arrays.copyOf(phases, positionCount);
+		results = Arrays.copyOf(results, positionCount);
+	}
+
+	/**
+	 * Resolves and traces the positions of a batch of lines and appends them, each chunk of lines is handled by its own fork/join task and evaluator.
+	 * @param lines The lines of the batch.
+	 */
+	private void loadBatch(List<String> lines) {
+		if (lines.isEmpty()) return;
+		final Chunk[] chunks = new Chunk[(lines.size() + TUNING_CHUNK_SIZE - 1) / TUNING_CHUNK_SIZE];
+		pool.invoke(new LoadTask(lines, chunks, 0, chunks.length));
+
+		int newPositions = 0;
+		int newFeatures = 0;
+		for (final Chunk chunk : chunks) {
+			newPositions += chunk.positions;
+			newFeatures += chunk.features;
+		}
+		int position = positionCount;
+		int feature = offsets[positionCount];
+		//Grown by doubling so appending stays linear over the whole file.
+		if (position + newPositions + 1 > offsets.length) {
+			final int capacity = Math.max(offsets.length * 2, position + newPositions + 1);
+			offsets = Arrays.copyOf(offsets, capacity);
+			phases = Arrays.copyOf(phases, capacity);
+			results = Arrays.copyOf(results, capacity);
+		}
+		if (feature + newFeatures > featureWeights.length) {
+			final int capacity = Math.max(featureWeights.length * 2, feature + newFeatures);
+			featureWeights = Arrays.copyOf(featureWeights, capacity);
+			featureCounts = Arrays.copyOf(featureCounts, capacity);
+		}
+
+		for (final Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.positions; i++) offsets[position + i] = feature + chunk.offsets[i];
+			System.arraycopy(chunk.featureWeights, 0, featureWeights, feature, chunk.features);
+			System.arraycopy(chunk.featureCounts, 0, featureCounts, feature, chunk.features);
+			System.arraycopy(chunk.phases, 0, phases, position, chunk.positions);
+			System.arraycopy(chunk.results, 0, results, position, chunk.positions);
+			position += chunk.positions;
+			feature += chunk.features;
+		}
+		positionCount = position;
+		offsets[positionCount] = feature;
+	}
+
+	/**
+	 * Finds the sigmoid scaling constant that best fits the current weights, by golden section search.
+	 * @return The constant.
+	 */
+	public double computeK() {
+		final double ratio = (Math.sqrt(5) - 1) / 2;
+		double low = 0;
+		double high = TUNING_MAX_K;
+		for (int i = 0; i < TUNING_K_ITERATIONS; i++) {
+			final double left = high - ratio * (high - low);
+			final double right = low + ratio * (high - low);
+			k = left;
+			final double leftError = error();
+			k = right;
+			final double rightError = error();
+			if (leftError < rightError) high = right;
+			else low = left;
+		}
+		k = (low + high) / 2;
+		return k;
+	}
+
+	/**
+	 * Minimizes the error with Adam, the scaling constant is computed first if it hasn't been.
+	 * @param epochs The number of passes over the positions.
+	 * @param learningRate The largest step a weight can take in one epoch, in centipawns.
+	 */
+	public void tune(int epochs, double learningRate) {
+		if (epochs < 1 || learningRate <= 0) throw new IllegalArgumentException("Invalid tuning parameters");
+		if (k == 0) System.out.println("K: " + computeK());
+
+		final double[] momentum = new double[weightCount];
+		final double[] velocity = new double[weightCount];
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			final double[] gradient = pool.invoke(new GradientTask(0, positionCount));
+			final double momentumCorrection = 1 - Math.pow(TUNING_BETA1, epoch);
+			final double velocityCorrection = 1 - Math.pow(TUNING_BETA2, epoch);
+			for (int i = 0; i < weightCount; i++) {
+				final double average = gradient[i] / positionCount;
+				momentum[i] = TUNING_BETA1 * momentum[i] + (1 - TUNING_BETA1) * average;
+				velocity[i] = TUNING_BETA2 * velocity[i] + (1 - TUNING_BETA2) * average * average;
+				weights[i] -= learningRate * (momentum[i] / momentumCorrection) / (Math.sqrt(velocity[i] / velocityCorrection) + TUNING_EPSILON);
+			}
+			if (epoch % 10 == 0 || epoch == epochs) System.out.println("Epoch: " + epoch + ", Error: " + error());
+		}
+	}
+
+	/**
+	 * Returns the mean squared error of the current weights.
+	 * @return The error.
+	 */
+	public double error() {
+		return pool.invoke(new ErrorTask(0, positionCount)) / Math.max(1, positionCount);
+	}
+
+	/**
+	 * Prints the rounded weights, one constant array per line.
+	 */
+	public void printWeights() {
+		for (final String line : formatWeights()) System.out.println(line);
+	}
+
+	/**
+	 * Saves the rounded weights, one constant array per line as printed by {@link Tuner#printWeights()}.
+	 * The evaluation constants are left untouched, so searches running alongside the tuner aren't affected.
+	 * @param path The path of the file, replaced if it exists.
+	 * @throws IOException If the file can't be written.
+	 */
+	public void saveWeights(Path path) throws IOException {
+		Files.write(path, formatWeights());
+	}
+
+	private ArrayList<String> formatWeights() {
+		final ArrayList<String> lines = new ArrayList<String>(arrays.size());
+		for (int i = 0; i < arrays.size(); i++) {
+			final int[] array = arrays.get(i);
+			final int first = firstWeight.get(array);
+			final StringBuilder line = new StringBuilder(names.get(i)).append(" = {");
+			for (int j = 0; j < array.length; j++) {
+				line.append(j == 0 ? "" : ", ").append(Math.round(weights[first + j]));
+			}
+			lines.add(line.append("}").toString());
+		}
+		return lines;
+	}
+
+	public int getPositionCount() {
+		return positionCount;
+	}
+
+	public int getWeightCount() {
+		return weightCount;
+	}
+
+	public double getK() {
+		return k;
+	}
+
+	/**
+	 * Computes a position's score from its weight counts.
+	 * @param position The index of the position.
+	 * @return The score in centipawns from white's perspective.
+	 */
+	private double evaluate(int position) {
+		double midgame = 0;
+		double endgame = 0;
+		for (int i = offsets[position]; i < offsets[position + 1]; i++) {
+			final double weight = weights[featureWeights[i]];
+			midgame += (featureCounts[i] >> 16) * weight;
+			endgame += (short) featureCounts[i] * weight;
+		}
+		return (midgame * phases[position] + endgame * (TOTAL_PHASE - phases[position])) / TOTAL_PHASE;
+	}
+
+	/**
+	 * Maps a score to the expected result.
+	 * @param score The score in centipawns.
+	 * @return The expected result, 0 for a loss to 1 for a win.
+	 */
+	private double sigmoid(double score) {
+		return 1 / (1 + Math.pow(10, -k * score / 400));
+	}
+
+	/**
+	 * Resolves a position with a quiescence search and traces the evaluation of the quiet position it leads to.
+	 * @param line A line of the data file.
+	 * @param evaluator The evaluator of the task.
+	 * @param chunk The chunk to add the position to.
+	 */
+	private void addPosition(String line, Evaluator evaluator, Chunk chunk) {
+		final String[] tokens = line.trim().split("\\s+");
+		if (tokens.length < 5) return;
+		final int result = parseResult(tokens[tokens.length - 1]);
+		if (result < 0) return;
+
+		//Only the FEN fields, anything else would be read as part of the position.
+		final StringBuilder fen = new StringBuilder();
+		for (int i = 0; i < tokens.length - 1 && i < 6; i++) {
+			if (i >= 4 && !tokens[i].chars().allMatch(Character::isDigit)) break;
+			fen.append(tokens[i]).append(' ');
+		}
+
+		final ChessBoard board;
+		try {
+			board = new ChessBoard(fen.toString().trim());
+		}
+		catch (RuntimeException e) {
+			return;
+		}
+		//Standing pat isn't allowed in check, the position isn't quiet.
+		if (board.isChecked(board.getTurn())) return;
+
+		final int[][] pvTable = new int[TUNING_QUIESCENCE_DEPTH + 1][TUNING_QUIESCENCE_DEPTH + 1];
+		final int[] pvLength = new int[TUNING_QUIESCENCE_DEPTH + 1];
+		quiescence(board, evaluator, -INFINITY, INFINITY, 0, pvTable, pvLength);
+		for (int ply = 0; ply < pvLength[0]; ply++) {
+			board.makeMove(new Move(pvTable[0][ply]));
+			if (board.is_promote()) board.promote(PieceType.QUEEN);
+		}
+
+		evaluator.setTrace(chunk);
+		evaluator.evaluate(board);
+		evaluator.setTrace(null);
+		chunk.endPosition((byte) Math.min(board.evaluation.getPhase(), TOTAL_PHASE), (byte) result);
+	}
+
+	/**
+	 * Quiescence search following captures, promoting to queens only, keeping the principal variation.
+	 * @return The score from the perspective of the side to move.
+	 */
+	private static int quiescence(ChessBoard board, Evaluator evaluator, int alpha, int beta, int ply, int[][] pvTable, int[] pvLength) {
+		pvLength[ply] = ply;
+		final int standPat = evaluator.evaluate(board);
+		if (standPat >= beta || ply == TUNING_QUIESCENCE_DEPTH) return standPat;
+		if (standPat > alpha) alpha = standPat;
+
+		final ArrayList<Move> moves = new ArrayList<Move>();
+		for (final ChessPiece piece : board.getPieces(board.getTurn())) piece.pieceMoves(moves, true);
+		//Most valuable victim first, least valuable attacker second.
+		moves.sort((first, second) -> captureOrder(board, second) - captureOrder(board, first));
+
+		final ChessBoard.BoardStorage store = board.copyData();
+		for (final Move move : moves) {
+			final ChessPiece capturedPiece = board.isEnPassant(move) ? board.getPiece(board.getEnPassant()) : board.getPiece(move.getFinish());
+			board.makeMove(move);
+			final boolean promoted = board.is_promote();
+			if (promoted) board.promote(PieceType.QUEEN);
+			final int score = -quiescence(board, evaluator, -beta, -alpha, ply + 1, pvTable, pvLength);
+			if (promoted) board.unPromote(move.getFinish());
+			board.undoMove(move, capturedPiece, store);
+
+			if (score <= alpha) continue;
+			alpha = score;
+			pvTable[ply][ply] = move.getID();
+			for (int next = ply + 1; next < pvLength[ply + 1]; next++) pvTable[ply][next] = pvTable[ply + 1][next];
+			pvLength[ply] = Math.max(ply + 1, pvLength[ply + 1]);
+			if (score >= beta) break;
+		}
+		return alpha;
+	}
+
+	/**
+	 * Returns the ordering score of a capture.
+	 */
+	private static int captureOrder(ChessBoard board, Move move) {
+		final ChessPiece victim = board.isEnPassant(move) ? board.getPiece(board.getEnPassant()) : board.getPiece(move.getFinish());
+		final ChessPiece attacker = board.getPiece(move.getStart());
+		final int victimValue = victim.isEmpty() ? 0 : PIECE_VALUES[victim.getType().arrayIndex];
+		return victimValue * 10 - (attacker.isKing() ? 0 : PIECE_VALUES[attacker.getType().arrayIndex]) / 10;
+	}
+
+	/**
+	 * Parses a game result.
+	 * @return 0 for a white loss, 1 for a draw, 2 for a white win, -1 if the result can't be read.
+	 */
+	private static int parseResult(String token) {
+		switch (token.replaceAll("[\\[\\]\";]", "")) {
+			case "1-0", "1.0", "1": return 2;
+			case "1/2-1/2", "0.5": return 1;
+			case "0-1", "0.0", "0": return 0;
+			default: return -1;
+		}
+	}
+
+	/**
+	 * The positions loaded by one task, with the weight counts of the position being traced.
+	 */
+	private class Chunk implements Evaluator.Trace {
+		int positions;
+		int features;
+		int[] offsets;
+		int[] featureWeights;
+		int[] featureCounts;
+		byte[] phases;
+		byte[] results;
+
+		private final int[] midgameCounts;
+		private final int[] endgameCounts;
+		private final int[] touched;
+		private int touchedCount;
+
+		Chunk() {
+			positions = 0;
+			features = 0;
+			offsets = new int[TUNING_CHUNK_SIZE];
+			featureWeights = new int[TUNING_CHUNK_SIZE * 16];
+			featureCounts = new int[TUNING_CHUNK_SIZE * 16];
+			phases = new byte[TUNING_CHUNK_SIZE];
+			results = new byte[TUNING_CHUNK_SIZE];
+			midgameCounts = new int[weightCount];
+			endgameCounts = new int[weightCount];
+			touched = new int[weightCount];
+			touchedCount = 0;
+		}
+
+		@Override
+		public void add(int[] array, int index, int midgame, int endgame) {
+			final int weight = firstWeight.get(array) + index;
+			if (midgameCounts[weight] == 0 && endgameCounts[weight] == 0) touched[touchedCount++] = weight;
+			midgameCounts[weight] += midgame;
+			endgameCounts[weight] += endgame;
+		}
+
+		/**
+		 * Stores the traced weight counts as a position and resets them for the next one.
+		 */
+		void endPosition(byte phase, byte result) {
+			if (features + touchedCount > featureWeights.length) {
+				featureWeights = Arrays.copyOf(featureWeights, Math.max(featureWeights.length * 2, features + touchedCount));
+				featureCounts = Arrays.copyOf(featureCounts, featureWeights.length);
+			}
+			offsets[positions] = features;
+			for (int i = 0; i < touchedCount; i++) {
+				final int weight = touched[i];
+				//Terms that cancel out, like two symmetrical pawns, aren't stored.
+				if (midgameCounts[weight] != 0 || endgameCounts[weight] != 0) {
+					featureWeights[features] = weight;
+					featureCounts[features] = midgameCounts[weight] << 16 | (endgameCounts[weight] & 0xFFFF);
+					features++;
+				}
+				midgameCounts[weight] = 0;
+				endgameCounts[weight] = 0;
+			}
+			touchedCount = 0;
+			phases[positions] = phase;
+			results[positions] = result;
+			positions++;
+		}
+	}
+
+	/**
+	 * Loads a range of chunks, splitting until a single chunk is left.
+	 */
+	private class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient List<String> lines;
+		private final transient Chunk[] chunks;
+		private final int low;
+		private final int high;
+
+		LoadTask(List<String> lines, Chunk[] chunks, int low, int high) {
+			this.lines = lines;
+			this.chunks = chunks;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low > 1) {
+				final int middle = (low + high) >>> 1;
+				invokeAll(new LoadTask(lines, chunks, low, middle), new LoadTask(lines, chunks, middle, high));
+				return;
+			}
+			final Evaluator evaluator = new Evaluator();
+			final Chunk chunk = new Chunk();
+			final int end = Math.min(lines.size(), (low + 1) * TUNING_CHUNK_SIZE);
+			for (int i = low * TUNING_CHUNK_SIZE; i < end; i++) addPosition(lines.get(i), evaluator, chunk);
+			chunks[low] = chunk;
+		}
+	}
+
+	/**
+	 * Sums the squared error of a range of positions.
+	 */
+	private class ErrorTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final int low;
+		private final int high;
+
+		ErrorTask(int low, int high) {
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected Double compute() {
+			if (high - low > TUNING_CHUNK_SIZE) {
+				final int middle = (low + high) >>> 1;
+				final ErrorTask left = new ErrorTask(low, middle);
+				left.fork();
+				return new ErrorTask(middle, high).compute() + left.join();
+			}
+			double sum = 0;
+			for (int position = low; position < high; position++) {
+				final double error = results[position] / 2.0 - sigmoid(evaluate(position));
+				sum += error * error;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Sums the gradient of the squared error over a range of positions.
+	 */
+	private class GradientTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final int low;
+		private final int high;
+
+		GradientTask(int low, int high) {
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (high - low > TUNING_CHUNK_SIZE) {
+				final int middle = (low + high) >>> 1;
+				final GradientTask left = new GradientTask(low, middle);
+				left.fork();
+				final double[] gradient = new GradientTask(middle, high).compute();
+				final double[] leftGradient = left.join();
+				for (int i = 0; i < weightCount; i++) gradient[i] += leftGradient[i];
+				return gradient;
+			}
+			final double[] gradient = new double[weightCount];
+			for (int position = low; position < high; position++) {
+				final double predicted = sigmoid(evaluate(position));
+				//Derivative of the squared error with respect to the score.
+				final double slope = -2 * (results[position] / 2.0 - predicted) * predicted * (1 - predicted) * Math.log(10) * k / 400;
+				final double midgameShare = slope * phases[position] / TOTAL_PHASE;
+				final double endgameShare = slope * (TOTAL_PHASE - phases[position]) / TOTAL_PHASE;
+				for (int i = offsets[position]; i < offsets[position + 1]; i++) {
+					gradient[featureWeights[i]] += (featureCounts[i] >> 16) * midgameShare + (short) featureCounts[i] * endgameShare;
+				}
+			}
+			return gradient;
+		}
+	}
+}
@@ -5,21 +5,63 @@ import static Chess.Constants.PositionConstants.QUEENSIDE;
 import static Chess.BoardUtil.getColumn;
 import static Chess.Constants.PositionConstants.EMPTY;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import Chess.Constants.PieceConstants.PieceColor;
+import Chess.Constants.PieceConstants.PieceType;
+
+import static Chess.Constants.BookConstants.*;
 
 public class ZobristHashing {
 
     private static final int NUM_PIECES = 12;
     private static final int NUM_SQUARES = 64;
+    private static final int MAX_PIECE_COUNT = 16;
+    // Saved transposition tables record the seed, keys from another seed would make them useless.
+    public static final long SEED = 42;
+
+    // Keys are generated once per JVM and shared by every board, a board only keeps its own hashes and state.
+    private static final long[][] zobristTable = new long[NUM_PIECES][NUM_SQUARES];
+    private static final long[] zobristCastling = new long[16];   // 4 bits of castling rights
+    private static final long[] zobristEnPassant = new long[9];    // file 0–7 or no en-passant (-1 = index 8)
+    private static final long zobristBlackToMove;
+    // Material keys by piece and count, the nth piece of a kind adds zobristMaterial[piece][n - 1]. Kings aren't counted.
+    private static final long[][] zobristMaterial = new long[NUM_PIECES][MAX_PIECE_COUNT];
+
+    static {
+        Random rand = new Random(SEED);
+        for (int p = 0; p < NUM_PIECES; p++) {
+            for (int s = 0; s < NUM_SQUARES; s++) {
+                zobristTable[p][s] = rand.nextLong();
+            }
+        }
+        for (int i = 0; i < 16; i++) {
+            zobristCastling[i] = rand.nextLong();
+        }
+        for (int i = 0; i < 9; i++) {
+            zobristEnPassant[i] = rand.nextLong();
+        }
+        zobristBlackToMove = rand.nextLong();
+        // Drawn after the other keys so those stay the same for saved tables.
+        for (int p = 0; p < NUM_PIECES; p++) {
+            for (int n = 0; n < MAX_PIECE_COUNT; n++) {
+                zobristMaterial[p][n] = rand.nextLong();
+            }
+        }
+    }
 
-    private long[][] zobristTable = new long[NUM_PIECES][NUM_SQUARES];
-    private long[] zobristCastling = new long[16];   // 4 bits of castling rights
-    private long[] zobristEnPassant = new long[9];    // file 0–7 or no en-passant (-1 = index 8)
-    private long zobristBlackToMove;
+    // The standard Polyglot keys, null until loaded. Opening books are keyed by these instead of the keys above.
+    private static volatile long[] polyglotKeys;
+    private static final Pattern POLYGLOT_KEY_PATTERN = Pattern.compile("0[xX]([0-9A-Fa-f]{16})");
 
     private long currentHash = 0;
+    private long pawnHash = 0;                // Pawns and kings only, keys the pawn structure table
+    private long materialHash = 0;            // Piece counts only, equal for positions with the same material
 
     private final ChessBoard board;
     private int castlingRights = 0b1111;     // 4 bits: KQkq
@@ -28,26 +70,12 @@ public class ZobristHashing {
 
     public ZobristHashing(ChessBoard board) {
         this.board = board;
-        initZobristTable(board);
+        initState(board);
         computeFullHash();
     }
 
 
-    private void initZobristTable(ChessBoard board) {
-        Random rand = new Random(42);
-        for (int p = 0; p < NUM_PIECES; p++) {
-            for (int s = 0; s < NUM_SQUARES; s++) {
-                zobristTable[p][s] = rand.nextLong();
-            }
-        }
-        for (int i = 0; i < 16; i++) {
-            zobristCastling[i] = rand.nextLong();
-        }
-        for (int i = 0; i < 9; i++) {
-            zobristEnPassant[i] = rand.nextLong();
-        }
-        zobristBlackToMove = rand.nextLong();
-
+    private void initState(ChessBoard board) {
         whiteToMove = board.getTurn() == PieceColor.WHITE;
 
         final boolean[] whiteCastlingRights = board.getCastlingPotential(PieceColor.WHITE);
@@ -68,6 +96,8 @@ public class ZobristHashing {
 
     public void computeFullHash() {
         currentHash = 0;
+        pawnHash = 0;
+        materialHash = 0;
 
         // Piece positions
         for (int square = 0; square < NUM_SQUARES; square++) {
@@ -75,6 +105,17 @@ public class ZobristHashing {
             if (piece.isEmpty()) continue;
             int tableIndex = piece.getType().arrayIndex + (piece.color == PieceColor.WHITE ? 0 : 6);
             currentHash ^= zobristTable[tableIndex][square];
+            if (piece.isPawn() || piece.isKing()) pawnHash ^= zobristTable[tableIndex][square];
+        }
+
+        // Piece counts
+        for (final PieceColor color : new PieceColor[] {PieceColor.BLACK, PieceColor.WHITE}) {
+            for (final PieceType type : PieceType.values()) {
+                if (type == PieceType.EMPTY || type == PieceType.KING) continue;
+                for (int n = 0; n < board.getPieceCount(color, type); n++) {
+                    materialHash ^= zobristMaterial[pieceIndex(color.arrayIndex, type.arrayIndex)][n];
+                }
+            }
         }
 
         // Castling rights
@@ -141,6 +182,94 @@ public class ZobristHashing {
     public void flipPiece(int square, ChessPiece piece) {
         int tableIndex = piece.getType().arrayIndex + (piece.color == PieceColor.WHITE ? 0 : 6);
         currentHash ^= zobristTable[tableIndex][square];
+        if (piece.isPawn() || piece.isKing()) pawnHash ^= zobristTable[tableIndex][square];
+    }
+
+    /**
+     * Updates the material hash after the count of a type of piece changed by one.
+     * @param color The index of the color of the pieces.
+     * @param type The index of the type of the pieces, not a king.
+     * @param oldCount The count before the change.
+     * @param newCount The count after the change.
+     */
+    public void updateMaterial(int color, int type, int oldCount, int newCount) {
+        materialHash ^= zobristMaterial[pieceIndex(color, type)][Math.min(oldCount, newCount)];
+    }
+
+    /**
+     * Loads the standard Polyglot keys, every 16 digit hex number in the file is read in order, so the Random64 array
+     * from the Polyglot book format can be used as is. The keys are checked against the published hashes of two positions.
+     * @param path The path of the key file.
+     * @throws IOException If the file can't be read or doesn't hold the standard keys.
+     */
+    public static void loadPolyglotKeys(Path path) throws IOException {
+        long[] keys = new long[POLYGLOT_KEY_COUNT];
+        int count = 0;
+        Matcher matcher = POLYGLOT_KEY_PATTERN.matcher(Files.readString(path));
+        while (matcher.find()) {
+            if (count == POLYGLOT_KEY_COUNT) throw new IOException("Too many Polyglot keys: " + path);
+            keys[count++] = Long.parseUnsignedLong(matcher.group(1), 16);
+        }
+        if (count != POLYGLOT_KEY_COUNT) throw new IOException("Expected " + POLYGLOT_KEY_COUNT + " Polyglot keys, found " + count + ": " + path);
+
+        if (polyglotHash(new ChessBoard(), keys) != POLYGLOT_START_KEY
+                || polyglotHash(new ChessBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"), keys) != POLYGLOT_E4_KEY) {
+            throw new IOException("Not the standard Polyglot keys: " + path);
+        }
+        polyglotKeys = keys;
+    }
+
+    public static boolean hasPolyglotKeys() {
+        return polyglotKeys != null;
+    }
+
+    /**
+     * Returns the Polyglot hash of the position, computed from scratch as books are only probed once per move.
+     * @return The hash opening books are keyed by.
+     */
+    public long getPolyglotHash() {
+        long[] keys = polyglotKeys;
+        if (keys == null) throw new IllegalStateException("Polyglot keys not loaded");
+        return polyglotHash(board, keys);
+    }
+
+    private static long polyglotHash(ChessBoard board, long[] keys) {
+        long hash = 0;
+        for (int square = 0; square < NUM_SQUARES; square++) {
+            final ChessPiece piece = board.getPiece(square);
+            if (piece.isEmpty()) continue;
+            // Polyglot counts ranks from white's side, squares here start at a8.
+            int kind = 2 * piece.getType().arrayIndex + (piece.color == PieceColor.WHITE ? 1 : 0);
+            hash ^= keys[64 * kind + 8 * (7 - square / 8) + getColumn(square)];
+        }
+
+        final boolean[] white = board.getCastlingPotential(PieceColor.WHITE);
+        final boolean[] black = board.getCastlingPotential(PieceColor.BLACK);
+        if (white[KINGSIDE]) hash ^= keys[POLYGLOT_CASTLING_OFFSET];
+        if (white[QUEENSIDE]) hash ^= keys[POLYGLOT_CASTLING_OFFSET + 1];
+        if (black[KINGSIDE]) hash ^= keys[POLYGLOT_CASTLING_OFFSET + 2];
+        if (black[QUEENSIDE]) hash ^= keys[POLYGLOT_CASTLING_OFFSET + 3];
+
+        // En passant only counts when a pawn of the side to move stands next to the pawn that moved two squares.
+        final int enPassant = board.getEnPassant();
+        if (enPassant != EMPTY) {
+            final int column = getColumn(enPassant);
+            final boolean left = column > 0 && isCapturingPawn(board, enPassant - 1);
+            final boolean right = column < 7 && isCapturingPawn(board, enPassant + 1);
+            if (left || right) hash ^= keys[POLYGLOT_EN_PASSANT_OFFSET + column];
+        }
+
+        if (board.getTurn() == PieceColor.WHITE) hash ^= keys[POLYGLOT_TURN_OFFSET];
+        return hash;
+    }
+
+    private static boolean isCapturingPawn(ChessBoard board, int square) {
+        final ChessPiece piece = board.getPiece(square);
+        return piece.isPawn() && piece.color == board.getTurn();
+    }
+
+    private static int pieceIndex(int color, int type) {
+        return type + (color == PieceColor.WHITE.arrayIndex ? 0 : 6);
     }
 
     // public void movePiece(int from, int to) {
@@ -167,4 +296,12 @@ public class ZobristHashing {
     public long getHash() {
         return currentHash;
     }
+
+    public long getPawnHash() {
+        return pawnHash;
+    }
+
+    public long getMaterialHash() {
+        return materialHash;
+    }
 }